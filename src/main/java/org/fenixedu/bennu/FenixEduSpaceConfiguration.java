@@ -43,6 +43,63 @@ public class FenixEduSpaceConfiguration {
         @ConfigurationProperty(key = "yAxisOffset", defaultValue = "0.3")
         public String yAxisOffset();
 
+        @ConfigurationProperty(key = "blueprintPrerenderThreads", defaultValue = "2")
+        public Integer blueprintPrerenderThreads();
+
+        @ConfigurationProperty(key = "blueprintPrerenderQueueSize", defaultValue = "32")
+        public Integer blueprintPrerenderQueueSize();
+
+        @ConfigurationProperty(key = "blueprintCacheSizeInMegabytes", defaultValue = "64")
+        public Integer blueprintCacheSizeInMegabytes();
+
+        @ConfigurationProperty(key = "blueprintParsedCacheSize", defaultValue = "8")
+        public Integer blueprintParsedCacheSize();
+
+        @ConfigurationProperty(key = "blueprintRenderThreads", defaultValue = "4")
+        public Integer blueprintRenderThreads();
+
+        @ConfigurationProperty(key = "blueprintRenderQueueSize", defaultValue = "64")
+        public Integer blueprintRenderQueueSize();
+
+        @ConfigurationProperty(key = "blueprintRenderTimeoutInSeconds", defaultValue = "30")
+        public Integer blueprintRenderTimeoutInSeconds();
+
+        @ConfigurationProperty(key = "blueprintRenderMemoryInMegabytes", defaultValue = "256")
+        public Integer blueprintRenderMemoryInMegabytes();
+
+        @ConfigurationProperty(key = "blueprintImageFormat", defaultValue = "png")
+        public String blueprintImageFormat();
+
+        @ConfigurationProperty(key = "blueprintJpegQuality", defaultValue = "0.9")
+        public String blueprintJpegQuality();
+
+        @ConfigurationProperty(key = "photoMaxEdge", defaultValue = "2048")
+        public Integer photoMaxEdge();
+
+        @ConfigurationProperty(key = "photoProcessingThreads", defaultValue = "1")
+        public Integer photoProcessingThreads();
+
+        @ConfigurationProperty(key = "photoProcessingQueueSize", defaultValue = "64")
+        public Integer photoProcessingQueueSize();
+
+        @ConfigurationProperty(key = "exportThreads", defaultValue = "2")
+        public Integer exportThreads();
+
+        @ConfigurationProperty(key = "exportQueueSize", defaultValue = "16")
+        public Integer exportQueueSize();
+
+        @ConfigurationProperty(key = "exportExpiryInMinutes", defaultValue = "60")
+        public Integer exportExpiryInMinutes();
+
+        @ConfigurationProperty(key = "spaceTraversalParallelism", defaultValue = "0")
+        public Integer spaceTraversalParallelism();
+
+        @ConfigurationProperty(key = "spaceImportBatchSize", defaultValue = "100")
+        public Integer spaceImportBatchSize();
+
+        @ConfigurationProperty(key = "occupationImportBatchSize", defaultValue = "200")
+        public Integer occupationImportBatchSize();
+
     }
 
     public static ConfigurationProperties getConfiguration() {
@@ -20,14 +20,95 @@ package org.fenixedu.spaces.domain;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.fenixedu.bennu.core.domain.Bennu;
 import org.fenixedu.bennu.core.domain.User;
+import org.fenixedu.bennu.core.signals.DomainObjectEvent;
+import org.fenixedu.bennu.core.signals.Signal;
+
+import pt.ist.fenixframework.FenixFramework;
+
+import com.google.common.hash.Hashing;
 
 public class BlueprintFile extends BlueprintFile_Base {
 
+    /**
+     * Emitted whenever a blueprint is given to a new space version, whether it was stored for it or was already stored.
+     */
+    public static final String BLUEPRINT_ATTACHED_SIGNAL = "fenixedu.spaces.blueprint.attached";
+
+    /**
+     * External ids of the stored blueprints by content hash. Entries may be stale, or missing for blueprints created in another
+     * server, so they are always checked against the domain, and a miss only means the content is stored again.
+     */
+    private static final ConcurrentHashMap<String, String> BY_CONTENT_HASH = new ConcurrentHashMap<>();
+
+    private static volatile boolean indexed = false;
+
     public BlueprintFile(String filename, byte[] content) {
         super();
         init(filename, filename, content);
+        setContentHash(hash(content));
+        setBennuBlueprint(Bennu.getInstance());
+        BY_CONTENT_HASH.put(getContentHash(), getExternalId());
+    }
+
+    /**
+     * @return the stored blueprint with the given content, or a new one if there is none
+     */
+    public static BlueprintFile findOrCreate(String filename, byte[] content) {
+        final BlueprintFile blueprint = findByContentHash(hash(content)).orElseGet(() -> new BlueprintFile(filename, content));
+        Signal.emit(BLUEPRINT_ATTACHED_SIGNAL, new DomainObjectEvent<BlueprintFile>(blueprint));
+        return blueprint;
+    }
+
+    public static Optional<BlueprintFile> findByContentHash(String contentHash) {
+        if (!indexed) {
+            for (BlueprintFile blueprint : Bennu.getInstance().getBlueprintFileSet()) {
+                if (blueprint.getContentHash() != null) {
+                    BY_CONTENT_HASH.putIfAbsent(blueprint.getContentHash(), blueprint.getExternalId());
+                }
+            }
+            indexed = true;
+        }
+        String externalId = BY_CONTENT_HASH.get(contentHash);
+        if (externalId != null) {
+            BlueprintFile blueprint = FenixFramework.getDomainObject(externalId);
+            if (FenixFramework.isDomainObjectValid(blueprint) && blueprint.getBennuBlueprint() != null
+                    && contentHash.equals(blueprint.getContentHash())) {
+                return Optional.of(blueprint);
+            }
+            BY_CONTENT_HASH.remove(contentHash, externalId);
+        }
+        return Optional.empty();
+    }
+
+    public static String hash(byte[] content) {
+        return Hashing.sha256().hashBytes(content).toString();
+    }
+
+    /**
+     * @return the number of space versions showing this blueprint
+     */
+    public int getReferenceCount() {
+        return getInformationSet().size();
+    }
+
+    /**
+     * Deletes this blueprint, which can only be done once no space version shows it.
+     */
+    @Override
+    public void delete() {
+        if (getReferenceCount() > 0) {
+            throw new SpaceDomainException("error.blueprint.in.use", String.valueOf(getReferenceCount()));
+        }
+        if (getContentHash() != null) {
+            BY_CONTENT_HASH.remove(getContentHash(), getExternalId());
+        }
+        setBennuBlueprint(null);
+        super.delete();
     }
 
     public static class BlueprintTextRectangles extends HashMap<Space, List<BlueprintTextRectangle>> {
@@ -72,6 +153,10 @@ public class BlueprintFile extends BlueprintFile_Base {
         public BlueprintPoint getP4() {
             return p4;
         }
+
+        public boolean contains(int x, int y) {
+            return x >= p1.getX() && x <= p3.getX() && y >= p1.getY() && y <= p3.getY();
+        }
     }
 
     public static class BlueprintPoint {
@@ -32,7 +32,6 @@ import org.joda.time.Interval;
 
 import com.google.common.collect.Lists;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 
 import pt.ist.fenixframework.Atomic;
 import pt.ist.fenixframework.Atomic.TxMode;
@@ -48,6 +47,26 @@ public class Information extends Information_Base {
 
     };
 
+    /**
+     * Metadata of this information decoded with the schema of its classification, kept until either of them is replaced.
+     */
+    private static class DecodedMetadata {
+
+        private final MetadataSchema schema;
+
+        private final JsonElement metadata;
+
+        private final Object[] values;
+
+        private DecodedMetadata(MetadataSchema schema, JsonElement metadata) {
+            this.schema = schema;
+            this.metadata = metadata;
+            this.values = schema.decode(metadata);
+        }
+    }
+
+    private volatile DecodedMetadata decoded;
+
     public static class Builder {
         private Integer allocatableCapacity;
         private String blueprintNumber;
@@ -219,7 +238,7 @@ public class Information extends Information_Base {
             setBlueprint(blueprintFile);
         }
         if (blueprint != null) {
-            setBlueprint(new BlueprintFile(name, blueprint));
+            setBlueprint(BlueprintFile.findOrCreate(name, blueprint));
         }
         if (spacePhotoSet != null) {
             getSpacePhotoSet().addAll(spacePhotoSet);
@@ -271,33 +290,18 @@ public class Information extends Information_Base {
                 null, blueprintFile, null, spacePhotoSet, user);
     }
 
-    @SuppressWarnings("unchecked")
     public <T extends Object> Optional<T> getMetadata(String field) {
-        Optional<JsonElement> spec = getClassification().getMetadataSpecJson(field);
-        if (spec.isPresent()) {
-            JsonObject jsObj = spec.get().getAsJsonObject();
-            final String type = jsObj.get("type").getAsString();
-            final JsonObject metadata = getMetadata().getAsJsonObject();
-
-            JsonElement fieldValue = metadata.get(field);
-
-            if (fieldValue == null || fieldValue.isJsonNull()) {
-                return Optional.empty();
-            }
-
-            if (Boolean.class.getName().equalsIgnoreCase(type)) {
-                return (Optional<T>) Optional.of(new Boolean(fieldValue.getAsBoolean()));
-            }
-            if (Integer.class.getName().equalsIgnoreCase(type)) {
-                return (Optional<T>) Optional.of(new Integer(fieldValue.getAsInt()));
-            }
-            if (BigDecimal.class.getName().equalsIgnoreCase(type)) {
-                return (Optional<T>) Optional.of(fieldValue.getAsBigDecimal());
-            }
-
-            return (Optional<T>) Optional.of(new String(fieldValue.getAsString()));
+        final MetadataSchema schema = getClassification().getMetadataSchema();
+        if (!schema.contains(field)) {
+            return Optional.empty();
+        }
+        final JsonElement metadata = getMetadata();
+        DecodedMetadata decoded = this.decoded;
+        if (decoded == null || decoded.schema != schema || decoded.metadata != metadata) {
+            decoded = new DecodedMetadata(schema, metadata);
+            this.decoded = decoded;
         }
-        return Optional.empty();
+        return schema.get(decoded.values, field);
     }
 
     protected Information copy() {
@@ -0,0 +1,208 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.domain;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Compiled form of the metadata spec of a classification: the position and type of each field, so metadata can be decoded
+ * once into an array of typed values instead of searching the spec on every read.
+ *
+ * Instances are immutable, and are recompiled whenever the spec they were built from is replaced.
+ */
+public class MetadataSchema {
+
+    public static enum MetadataType {
+        BOOLEAN, INTEGER, BIG_DECIMAL, STRING;
+
+        public static MetadataType of(String type) {
+            if (Boolean.class.getName().equalsIgnoreCase(type)) {
+                return BOOLEAN;
+            }
+            if (Integer.class.getName().equalsIgnoreCase(type)) {
+                return INTEGER;
+            }
+            if (BigDecimal.class.getName().equalsIgnoreCase(type)) {
+                return BIG_DECIMAL;
+            }
+            return STRING;
+        }
+
+        Object decode(JsonElement value) {
+            switch (this) {
+            case BOOLEAN:
+                return value.getAsBoolean();
+            case INTEGER:
+                return value.getAsInt();
+            case BIG_DECIMAL:
+                return value.getAsBigDecimal();
+            default:
+                return value.getAsString();
+            }
+        }
+    }
+
+    public static class Field {
+
+        private final int index;
+
+        private final String name;
+
+        private final MetadataType type;
+
+        private final String defaultValue;
+
+        private final boolean indexed;
+
+        private final JsonElement spec;
+
+        private Field(int index, JsonElement spec) {
+            final JsonObject json = spec.getAsJsonObject();
+            this.index = index;
+            this.name = json.get("name").getAsString();
+            this.type = MetadataType.of(json.get("type").getAsString());
+            final JsonElement defaultValue = json.get("defaultValue");
+            this.defaultValue = defaultValue == null || defaultValue.isJsonNull() ? null : defaultValue.getAsString();
+            final JsonElement indexed = json.get("indexed");
+            this.indexed = indexed != null && !indexed.isJsonNull() && indexed.getAsBoolean();
+            this.spec = spec;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public MetadataType getType() {
+            return type;
+        }
+
+        public String getDefaultValue() {
+            return defaultValue;
+        }
+
+        /**
+         * Whether spaces are indexed by the value of this field, so they can be searched by it.
+         */
+        public boolean isIndexed() {
+            return indexed;
+        }
+
+        public JsonElement getSpec() {
+            return spec;
+        }
+    }
+
+    /**
+     * Value of a field that does not match its declared type, thrown again when the field is read.
+     */
+    private static class InvalidValue {
+
+        private final RuntimeException cause;
+
+        private InvalidValue(RuntimeException cause) {
+            this.cause = cause;
+        }
+    }
+
+    private final JsonElement source;
+
+    private final Field[] fields;
+
+    private final Map<String, Field> fieldsByName;
+
+    MetadataSchema(JsonElement source) {
+        this.source = source;
+        final Map<String, Field> fieldsByName = new HashMap<>();
+        if (source != null) {
+            for (JsonElement spec : source.getAsJsonArray()) {
+                final Field field = new Field(fieldsByName.size(), spec);
+                // the first declaration of a field wins, as when searching the spec
+                fieldsByName.putIfAbsent(field.getName(), field);
+            }
+        }
+        this.fields = fieldsByName.values().toArray(new Field[fieldsByName.size()]);
+        this.fieldsByName = Collections.unmodifiableMap(fieldsByName);
+    }
+
+    boolean isCompiledFrom(JsonElement spec) {
+        return source == spec;
+    }
+
+    public Optional<Field> getField(String name) {
+        return Optional.ofNullable(fieldsByName.get(name));
+    }
+
+    public boolean contains(String name) {
+        return fieldsByName.containsKey(name);
+    }
+
+    public Map<String, Field> getFields() {
+        return fieldsByName;
+    }
+
+    /**
+     * Decodes the given metadata into an array with the typed value of each field at its index, null for missing fields.
+     */
+    Object[] decode(JsonElement metadata) {
+        final Object[] values = new Object[fields.length];
+        if (metadata == null || !metadata.isJsonObject()) {
+            return values;
+        }
+        final JsonObject json = metadata.getAsJsonObject();
+        for (Field field : fields) {
+            final JsonElement value = json.get(field.getName());
+            if (value != null && !value.isJsonNull()) {
+                try {
+                    values[field.getIndex()] = field.getType().decode(value);
+                } catch (RuntimeException e) {
+                    values[field.getIndex()] = new InvalidValue(e);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the value of the field in values decoded with this schema
+     */
+    @SuppressWarnings("unchecked")
+    <T> Optional<T> get(Object[] values, String name) {
+        final Field field = fieldsByName.get(name);
+        if (field == null) {
+            return Optional.empty();
+        }
+        final Object value = values[field.getIndex()];
+        if (value instanceof InvalidValue) {
+            throw ((InvalidValue) value).cause;
+        }
+        return Optional.ofNullable((T) value);
+    }
+
+}
@@ -19,7 +19,9 @@
 package org.fenixedu.spaces.domain;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -29,6 +31,8 @@ import org.fenixedu.bennu.core.domain.Bennu;
 import org.fenixedu.bennu.core.domain.User;
 import org.fenixedu.bennu.core.groups.Group;
 import org.fenixedu.bennu.core.groups.NobodyGroup;
+import org.fenixedu.bennu.core.signals.DomainObjectEvent;
+import org.fenixedu.bennu.core.signals.Signal;
 import org.fenixedu.spaces.domain.occupation.Occupation;
 import org.fenixedu.spaces.domain.submission.SpacePhoto;
 import org.fenixedu.spaces.ui.InformationBean;
@@ -42,6 +46,9 @@ import pt.ist.fenixframework.Atomic;
 import pt.ist.fenixframework.Atomic.TxMode;
 
 public final class Space extends Space_Base implements Comparable<Space> {
+
+    public static final String INFORMATION_CHANGED_SIGNAL = "fenixedu.spaces.space.informationChanged";
+
     public Space() {
         super();
     }
@@ -94,6 +101,19 @@ public final class Space extends Space_Base implements Comparable<Space> {
         return Lists.reverse(timeline);
     }
 
+    /**
+     * @return all the versions of this space, from the current one to the oldest
+     */
+    public List<Information> versions() {
+        List<Information> versions = new ArrayList<>();
+        Information current = getCurrent();
+        while (current != null) {
+            versions.add(current);
+            current = current.getPrevious();
+        }
+        return versions;
+    }
+
     public SpaceClassification getClassification() {
         return getInformation().map(info -> info.getClassification()).get();
     }
@@ -160,6 +180,7 @@ public final class Space extends Space_Base implements Comparable<Space> {
 
         if (getCurrent() == null) {
             setCurrent(information);
+            Signal.emit(INFORMATION_CHANGED_SIGNAL, new DomainObjectEvent<Space>(this));
             return;
         }
 
@@ -259,12 +280,14 @@ public final class Space extends Space_Base implements Comparable<Space> {
 
         addHistory(head);
         setCurrent(newHead);
+        Signal.emit(INFORMATION_CHANGED_SIGNAL, new DomainObjectEvent<Space>(this));
     }
 
     @Atomic(mode = TxMode.WRITE)
     public void delete() {
         setBennu(null);
         setDeletedBennu(Bennu.getInstance());
+        Signal.emit(INFORMATION_CHANGED_SIGNAL, new DomainObjectEvent<Space>(this));
     }
 
     public Optional<Space> readChildByBlueprintNumber(final String blueprintNumber, final DateTime when) {
@@ -272,6 +295,33 @@ public final class Space extends Space_Base implements Comparable<Space> {
                 .filter(space -> blueprintNumber.equals(space.getBlueprintNumber().orElse(null))).findFirst();
     }
 
+    /**
+     * Active children indexed by their blueprint number at the given instant, to resolve many blueprint labels against the same
+     * parent.
+     *
+     * @return map from blueprint number to child space
+     */
+    public Map<String, Space> getChildrenByBlueprintNumber(final DateTime when) {
+        final Map<String, Space> children = new HashMap<>();
+        for (final Space child : getChildrenSet()) {
+            if (child.isActive()) {
+                final String blueprintNumber = child.getBlueprintNumber(when).orElse(null);
+                if (!Strings.isNullOrEmpty(blueprintNumber)) {
+                    children.putIfAbsent(blueprintNumber, child);
+                }
+            }
+        }
+        return children;
+    }
+
+    /**
+     * @return the external id of the information valid at the given instant. Any edit creates new information, so it changes
+     *         whenever anything shown about this space at that instant does.
+     */
+    public Optional<String> getInformationId(DateTime when) {
+        return getInformation(when).map(info -> info.getExternalId());
+    }
+
     public Optional<String> getBlueprintNumber() {
         return getInformation().map(info -> info.getBlueprintNumber());
     }
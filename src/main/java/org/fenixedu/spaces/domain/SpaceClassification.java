@@ -18,12 +18,16 @@
  */
 package org.fenixedu.spaces.domain;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -32,43 +36,45 @@ import javax.ws.rs.core.Response.Status;
 import org.fenixedu.bennu.FenixEduSpaceConfiguration;
 import org.fenixedu.bennu.core.domain.Bennu;
 import org.fenixedu.bennu.core.domain.exceptions.DomainException;
+import org.fenixedu.bennu.core.signals.DomainObjectEvent;
+import org.fenixedu.bennu.core.signals.Signal;
 import org.fenixedu.commons.i18n.LocalizedString;
+import org.fenixedu.spaces.services.DomainSnapshot;
 import org.fenixedu.spaces.ui.SpaceClassificationBean;
 
 import pt.ist.fenixframework.Atomic;
+import pt.ist.fenixframework.FenixFramework;
+import pt.ist.fenixframework.Transaction;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 
 public class SpaceClassification extends SpaceClassification_Base {
 
-    private static final Comparator<SpaceClassification> ABSOLUTE_CODE_COMPARATOR = new Comparator<SpaceClassification>() {
+    public static final String CLASSIFICATION_CHANGED_SIGNAL = "fenixedu.spaces.classification.changed";
 
-        private int compareIntString(String o1, String o2) {
-            try {
-                Integer o1AbsCode = Integer.parseInt(o1);
-                Integer o2AbsCode = Integer.parseInt(o2);
-                return o1AbsCode.compareTo(o2AbsCode);
-            } catch (NumberFormatException nfe) {
-                return o1.compareTo(o2);
-            }
+    private volatile MetadataSchema schema;
+
+    private static int compareIntString(String o1, String o2) {
+        try {
+            Integer o1AbsCode = Integer.parseInt(o1);
+            Integer o2AbsCode = Integer.parseInt(o2);
+            return o1AbsCode.compareTo(o2AbsCode);
+        } catch (NumberFormatException nfe) {
+            return o1.compareTo(o2);
         }
+    }
 
-        @Override
-        public int compare(SpaceClassification o1, SpaceClassification o2) {
-            String tokens1[] = o1.getAbsoluteCode().split("[.]");
-            String tokens2[] = o2.getAbsoluteCode().split("[.]");
-            for (int i = 0; i < Math.min(tokens1.length, tokens2.length); i++) {
-                int result = compareIntString(tokens1[i], tokens2[i]);
-                if (result != 0) {
-                    return result;
-                }
+    private static int compareAbsoluteCodes(String[] tokens1, String[] tokens2) {
+        for (int i = 0; i < Math.min(tokens1.length, tokens2.length); i++) {
+            int result = compareIntString(tokens1[i], tokens2[i]);
+            if (result != 0) {
+                return result;
             }
-            return tokens1.length - tokens2.length;
         }
-    };
+        return tokens1.length - tokens2.length;
+    }
 
     public SpaceClassification(String code, LocalizedString name, SpaceClassification parent, JsonElement metadataSpec) {
         this(code, name, parent, metadataSpec, true);
@@ -84,6 +90,7 @@ public class SpaceClassification extends SpaceClassification_Base {
             setBennu(Bennu.getInstance());
         }
         setMetadataSpec(metadataSpec);
+        changed();
     }
 
     public SpaceClassification(String code, LocalizedString name, SpaceClassification parent) {
@@ -98,37 +105,129 @@ public class SpaceClassification extends SpaceClassification_Base {
         this(code, name, null);
     }
 
+    /**
+     * Classifications by absolute code and by the content of their name in any locale, rebuilt after any classification
+     * changes.
+     *
+     * Changes made in the current transaction are only seen after it commits, so a transaction that changed any classification
+     * walks the tree instead.
+     */
+    private static class Lookup {
+
+        private final Map<String, String> byAbsoluteCode = new HashMap<>();
+
+        private final Map<String, String> absoluteCodes = new HashMap<>();
+
+        private final Map<String, String> byName = new HashMap<>();
+
+        private Lookup() {
+            final Map<SpaceClassification, String[]> classifications = new LinkedHashMap<>();
+            for (SpaceClassification classification : Bennu.getInstance().getRootClassificationSet()) {
+                classification.dump(classifications, new String[0]);
+            }
+            for (Map.Entry<SpaceClassification, String[]> entry : classifications.entrySet()) {
+                final String id = entry.getKey().getExternalId();
+                final String absoluteCode = String.join(".", entry.getValue());
+                byAbsoluteCode.putIfAbsent(absoluteCode, id);
+                absoluteCodes.put(id, absoluteCode);
+                final LocalizedString name = entry.getKey().getName();
+                if (name != null) {
+                    for (Locale locale : name.getLocales()) {
+                        byName.putIfAbsent(name.getContent(locale), id);
+                    }
+                }
+            }
+        }
+
+        private static SpaceClassification resolve(String id) {
+            if (id == null) {
+                return null;
+            }
+            final SpaceClassification classification = FenixFramework.getDomainObject(id);
+            return FenixFramework.isDomainObjectValid(classification) ? classification : null;
+        }
+    }
+
+    private static final DomainSnapshot<Lookup> lookup = new DomainSnapshot<>(Lookup::new);
+
+    static {
+        Signal.registerWithoutTransaction(CLASSIFICATION_CHANGED_SIGNAL, event -> lookup.invalidate());
+    }
+
+    /**
+     * The last transaction of each thread that changed a classification.
+     */
+    private static final ThreadLocal<Transaction> changedIn = new ThreadLocal<>();
+
+    private static void modified() {
+        changedIn.set(FenixFramework.getTransaction());
+    }
+
+    private static boolean isModifiedInTransaction() {
+        final Transaction transaction = changedIn.get();
+        if (transaction == null) {
+            return false;
+        }
+        if (transaction != FenixFramework.getTransaction()) {
+            changedIn.remove();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void setCode(String code) {
+        super.setCode(code);
+        modified();
+    }
+
+    @Override
+    public void setName(LocalizedString name) {
+        super.setName(name);
+        modified();
+    }
+
+    @Override
+    public void setParent(SpaceClassification parent) {
+        super.setParent(parent);
+        modified();
+    }
+
+    /**
+     * @return the classification with the given absolute code, such as 11.2, or null if there is none
+     */
     public static SpaceClassification get(String code) {
-        String parentCode = null;
-        String childCode = null;
-        if (code.indexOf(".") != -1) {
-            String[] subCodes = code.split("\\.");
-            parentCode = subCodes[0];
-            childCode = subCodes[1];
-        } else {
-            parentCode = code;
+        if (!isModifiedInTransaction()) {
+            return Lookup.resolve(lookup.get().byAbsoluteCode.get(code));
         }
-        for (SpaceClassification classification : Bennu.getInstance().getRootClassificationSet()) {
-            if (classification.getCode().equals(parentCode)) {
-                if (childCode != null) {
-                    return classification.getChild(childCode);
-                }
-                return classification;
+        Collection<SpaceClassification> level = Bennu.getInstance().getRootClassificationSet();
+        SpaceClassification classification = null;
+        for (String subCode : code.split("\\.")) {
+            classification = findByCode(subCode, level);
+            if (classification == null) {
+                return null;
             }
+            level = classification.getChildrenSet();
         }
-        return null;
+        return classification;
     }
 
-    private SpaceClassification getChild(String code) {
-        for (SpaceClassification child : getChildrenSet()) {
-            if (child.getCode().equals(code)) {
-                return child;
+    private static SpaceClassification findByCode(String code, Collection<SpaceClassification> classifications) {
+        for (SpaceClassification classification : classifications) {
+            if (classification.getCode().equals(code)) {
+                return classification;
             }
         }
         return null;
     }
 
     public String getAbsoluteCode() {
+        if (!isModifiedInTransaction()) {
+            final String absoluteCode = lookup.get().absoluteCodes.get(getExternalId());
+            if (absoluteCode != null) {
+                return absoluteCode;
+            }
+        }
         return getPath().stream().filter(c -> !c.getCode().isEmpty()).map(c -> c.getCode()).collect(Collectors.joining("."));
     }
 
@@ -142,27 +241,44 @@ public class SpaceClassification extends SpaceClassification_Base {
         return path;
     }
 
-    private void dump(List<SpaceClassification> classifications) {
-        classifications.add(this);
+    /**
+     * Adds this classification and its descendants, together with their absolute codes split in tokens, built from the code of
+     * their parent instead of walking up the tree for each one.
+     */
+    private void dump(Map<SpaceClassification, String[]> classifications, String[] parentCode) {
+        String[] absoluteCode = parentCode;
+        if (!getCode().isEmpty()) {
+            absoluteCode = Arrays.copyOf(parentCode, parentCode.length + 1);
+            absoluteCode[parentCode.length] = getCode();
+        }
+        classifications.put(this, absoluteCode);
         for (SpaceClassification classification : getChildrenSet()) {
-            classification.dump(classifications);
+            classification.dump(classifications, absoluteCode);
         }
     }
 
+    private static List<SpaceClassification> sortByAbsoluteCode(Map<SpaceClassification, String[]> classifications) {
+        return classifications.keySet().stream()
+                .sorted((o1, o2) -> compareAbsoluteCodes(classifications.get(o1), classifications.get(o2)))
+                .collect(Collectors.toList());
+    }
+
     public static List<SpaceClassification> all() {
-        final List<SpaceClassification> classifications = new ArrayList<>();
+        final Map<SpaceClassification, String[]> classifications = new LinkedHashMap<>();
         for (SpaceClassification classification : Bennu.getInstance().getRootClassificationSet()) {
-            classification.dump(classifications);
+            classification.dump(classifications, new String[0]);
         }
-        return classifications.stream().sorted(ABSOLUTE_CODE_COMPARATOR).collect(Collectors.toList());
+        return sortByAbsoluteCode(classifications);
     }
 
     public List<SpaceClassification> getAllChildren() {
-        final List<SpaceClassification> classifications = new ArrayList<>();
+        final Map<SpaceClassification, String[]> classifications = new LinkedHashMap<>();
+        final String[] absoluteCode = getPath().stream().filter(c -> !c.getCode().isEmpty()).map(c -> c.getCode())
+                .toArray(String[]::new);
         for (SpaceClassification classification : getChildrenSet()) {
-            classification.dump(classifications);
+            classification.dump(classifications, absoluteCode);
         }
-        return classifications.stream().sorted(ABSOLUTE_CODE_COMPARATOR).collect(Collectors.toList());
+        return sortByAbsoluteCode(classifications);
     }
 
     private static class DeleteSpaceClassificationException extends DomainException {
@@ -182,19 +298,27 @@ public class SpaceClassification extends SpaceClassification_Base {
 
         setParent(null);
         setBennu(null);
+        changed();
         //remove
         deleteDomainObject();
         //domain exception
     }
 
-    public Optional<JsonElement> getMetadataSpecJson(String field) {
-        for (JsonElement je : getMetadataSpec().getAsJsonArray()) {
-            JsonObject job = je.getAsJsonObject();
-            if (job.get("name").getAsString().equals(field)) {
-                return Optional.of(je);
-            }
+    /**
+     * @return the compiled form of the current metadata spec of this classification
+     */
+    public MetadataSchema getMetadataSchema() {
+        final JsonElement spec = getMetadataSpec();
+        MetadataSchema schema = this.schema;
+        if (schema == null || !schema.isCompiledFrom(spec)) {
+            schema = new MetadataSchema(spec);
+            this.schema = schema;
         }
-        return Optional.empty();
+        return schema;
+    }
+
+    public Optional<JsonElement> getMetadataSpecJson(String field) {
+        return getMetadataSchema().getField(field).map(MetadataSchema.Field::getSpec);
     }
 
     @Deprecated
@@ -218,62 +342,107 @@ public class SpaceClassification extends SpaceClassification_Base {
 
     @Override
     public void setMetadataSpec(JsonElement metadataSpec) {
-        if (metadataSpec == null) {
-            super.setMetadataSpec(new JsonArray());
-        }
-        super.setMetadataSpec(metadataSpec);
-        JsonElement toUpdate = computeUpdate(metadataSpec);
-        for (SpaceClassification classification : getChildrenSet()) {
-            classification.updateAndPropagate(toUpdate);
-        }
+        super.setMetadataSpec(metadataSpec == null ? new JsonArray() : metadataSpec);
+        propagate(computeUpdate(getMetadataSpec()));
     }
 
-    private JsonElement filterInherited(JsonElement currentMetadata) {
-        JsonArray current = currentMetadata.getAsJsonArray();
-        JsonArray newCurrent = new JsonArray();
-        for (JsonElement spec : current) {
-            JsonObject specObj = spec.getAsJsonObject();
-            if (specObj.get("inherited") == null || specObj.get("inherited").isJsonNull()
-                    || specObj.get("inherited").getAsBoolean() == false) {
-                newCurrent.add(spec);
+    /**
+     * Announces, once the transaction commits, that this classification changed. Creating and deleting a classification
+     * already do so, whoever changes it through its setters must call this once afterwards.
+     */
+    public void changed() {
+        modified();
+        Signal.emit(CLASSIFICATION_CHANGED_SIGNAL, new DomainObjectEvent<SpaceClassification>(this));
+    }
+
+    /**
+     * @return copies of the fields declared by this classification, marked as inherited, by name
+     */
+    private static Map<String, JsonObject> computeUpdate(JsonElement metadataSpec) {
+        final Map<String, JsonObject> toInherit = new LinkedHashMap<>();
+        for (JsonElement spec : metadataSpec.getAsJsonArray()) {
+            final JsonObject specObj = spec.getAsJsonObject();
+            final JsonElement inherited = specObj.get("inherited");
+            if (inherited == null || inherited.isJsonNull() || !inherited.getAsBoolean()) {
+                final JsonObject copy = (JsonObject) copy(specObj);
+                copy.addProperty("inherited", true);
+                toInherit.put(copy.get("name").getAsString(), copy);
             }
         }
-        return newCurrent;
+        return toInherit;
     }
 
-    private JsonElement computeUpdate(JsonElement metadataSpec) {
-        JsonElement toInherit = filterInherited(metadataSpec);
-        toInherit = new JsonParser().parse(toInherit.toString());
-        for (JsonElement ti : toInherit.getAsJsonArray()) {
-            JsonObject job = ti.getAsJsonObject();
-            job.addProperty("inherited", true);
+    private static JsonElement copy(JsonElement element) {
+        if (element.isJsonObject()) {
+            final JsonObject copy = new JsonObject();
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                copy.add(entry.getKey(), copy(entry.getValue()));
+            }
+            return copy;
         }
-        return toInherit;
+        if (element.isJsonArray()) {
+            final JsonArray copy = new JsonArray();
+            for (JsonElement item : element.getAsJsonArray()) {
+                copy.add(copy(item));
+            }
+            return copy;
+        }
+        return element;
     }
 
-    private void updateAndPropagate(JsonElement toUpdate) {
-        updateClassification(toUpdate);
-        for (SpaceClassification classification : getChildrenSet()) {
-            classification.updateAndPropagate(toUpdate);
+    /**
+     * Merges the given inherited fields into the spec of every descendant in a single walk of the subtree, writing only the
+     * descendants whose spec actually changes.
+     */
+    private void propagate(Map<String, JsonObject> toUpdate) {
+        if (toUpdate.isEmpty()) {
+            return;
+        }
+        final Deque<SpaceClassification> pending = new ArrayDeque<>(getChildrenSet());
+        while (!pending.isEmpty()) {
+            final SpaceClassification classification = pending.pop();
+            final JsonArray merged = classification.merge(toUpdate);
+            if (merged != null) {
+                classification.writeMetadataSpec(merged);
+            }
+            pending.addAll(classification.getChildrenSet());
         }
     }
 
-    private void updateClassification(JsonElement toUpdate) {
-        JsonElement metadataSpec = getMetadataSpec();
-        JsonArray newSpec = new JsonArray();
-        HashMap<String, JsonObject> fields = new HashMap<String, JsonObject>();
-        for (JsonElement spec : metadataSpec.getAsJsonArray()) {
-            JsonObject specObj = spec.getAsJsonObject();
-            fields.put(specObj.get("name").getAsString(), specObj);
+    /**
+     * @return the spec of this classification with the given inherited fields replacing the ones with the same name, or null
+     *         if that is the current spec
+     */
+    private JsonArray merge(Map<String, JsonObject> toUpdate) {
+        final Map<String, JsonElement> fields = new LinkedHashMap<>();
+        boolean changed = false;
+        final JsonElement metadataSpec = getMetadataSpec();
+        if (metadataSpec != null) {
+            for (JsonElement spec : metadataSpec.getAsJsonArray()) {
+                final String name = spec.getAsJsonObject().get("name").getAsString();
+                final JsonObject update = toUpdate.get(name);
+                changed |= update != null && !update.equals(spec) || fields.containsKey(name);
+                fields.put(name, update == null ? spec : update);
+            }
+        }
+        for (Map.Entry<String, JsonObject> update : toUpdate.entrySet()) {
+            if (!fields.containsKey(update.getKey())) {
+                fields.put(update.getKey(), update.getValue());
+                changed = true;
+            }
         }
-        for (JsonElement spec : toUpdate.getAsJsonArray()) {
-            JsonObject specObj = spec.getAsJsonObject();
-            fields.put(specObj.get("name").getAsString(), specObj);
+        if (!changed) {
+            return null;
         }
-        for (JsonObject spec : fields.values()) {
+        final JsonArray newSpec = new JsonArray();
+        for (JsonElement spec : fields.values()) {
             newSpec.add(spec);
         }
-        super.setMetadataSpec(newSpec);
+        return newSpec;
+    }
+
+    private void writeMetadataSpec(JsonElement metadataSpec) {
+        super.setMetadataSpec(metadataSpec);
     }
 
     public void setMetadataSpecs(Collection<MetadataSpec> specs) {
@@ -329,6 +498,9 @@ public class SpaceClassification extends SpaceClassification_Base {
     }
 
     public static SpaceClassification getByName(String needle) {
+        if (!isModifiedInTransaction()) {
+            return Lookup.resolve(lookup.get().byName.get(needle));
+        }
         return findByName(needle, Bennu.getInstance().getRootClassificationSet());
     }
 
@@ -0,0 +1,90 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.domain.occupation;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Optional;
+
+import org.fenixedu.bennu.core.domain.Bennu;
+import org.fenixedu.bennu.core.domain.User;
+import org.joda.time.DateTime;
+
+import pt.ist.fenixframework.Atomic;
+import pt.ist.fenixframework.Atomic.TxMode;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Secret that gives access to the calendar of the occupations shared with a user, so calendar clients can subscribe to it
+ * without the user's session. A user has at most one, and renewing or revoking it stops the previous address from working.
+ */
+public class OccupantCalendarToken extends OccupantCalendarToken_Base {
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private OccupantCalendarToken(User user) {
+        super();
+        final byte[] secret = new byte[32];
+        random.nextBytes(secret);
+        setBennu(Bennu.getInstance());
+        setUser(user);
+        setToken(BaseEncoding.base64Url().omitPadding().encode(secret));
+        setCreated(new DateTime());
+    }
+
+    public static Optional<OccupantCalendarToken> forUser(User user) {
+        return Bennu.getInstance().getOccupantCalendarTokenSet().stream().filter(token -> token.getUser() == user).findAny();
+    }
+
+    /**
+     * @return the user the given token was issued to, if it is still valid
+     */
+    public static Optional<User> findUser(String token) {
+        final byte[] candidate = token.getBytes(StandardCharsets.UTF_8);
+        for (OccupantCalendarToken existing : Bennu.getInstance().getOccupantCalendarTokenSet()) {
+            if (MessageDigest.isEqual(existing.getToken().getBytes(StandardCharsets.UTF_8), candidate)) {
+                return Optional.of(existing.getUser());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Issues a new token to the given user, revoking the one they had.
+     */
+    @Atomic(mode = TxMode.WRITE)
+    public static OccupantCalendarToken renew(User user) {
+        revoke(user);
+        return new OccupantCalendarToken(user);
+    }
+
+    @Atomic(mode = TxMode.WRITE)
+    public static void revoke(User user) {
+        forUser(user).ifPresent(OccupantCalendarToken::delete);
+    }
+
+    public void delete() {
+        setUser(null);
+        setBennu(null);
+        deleteDomainObject();
+    }
+
+}
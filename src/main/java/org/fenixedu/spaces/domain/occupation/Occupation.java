@@ -25,6 +25,8 @@ import java.util.stream.Collectors;
 import org.fenixedu.bennu.core.domain.Bennu;
 import org.fenixedu.bennu.core.domain.User;
 import org.fenixedu.bennu.core.security.Authenticate;
+import org.fenixedu.bennu.core.signals.DomainObjectEvent;
+import org.fenixedu.bennu.core.signals.Signal;
 import org.fenixedu.bennu.core.util.CoreConfiguration;
 import org.fenixedu.spaces.domain.Space;
 import org.fenixedu.spaces.domain.occupation.config.OccupationConfig;
@@ -34,6 +36,8 @@ import org.joda.time.Interval;
 
 public class Occupation extends Occupation_Base {
 
+    public static final String OCCUPATION_CHANGED_SIGNAL = "fenixedu.spaces.occupation.changed";
+
     public Occupation() {
         super();
         setBennu(Bennu.getInstance());
@@ -52,14 +56,22 @@ public class Occupation extends Occupation_Base {
         setRequest(request);
     }
 
+    @Override
+    public void setConfig(OccupationConfig config) {
+        super.setConfig(config);
+        Signal.emit(OCCUPATION_CHANGED_SIGNAL, new DomainObjectEvent<Occupation>(this));
+    }
+
     @Override
     public void addSpace(Space space) {
         super.addSpace(space);
+        Signal.emit(OCCUPATION_CHANGED_SIGNAL, new DomainObjectEvent<Occupation>(this));
     }
 
     @Override
     public void removeSpace(Space space) {
         super.removeSpace(space);
+        Signal.emit(OCCUPATION_CHANGED_SIGNAL, new DomainObjectEvent<Occupation>(this));
     }
 
     public Set<Space> getSpaces() {
@@ -118,6 +130,7 @@ public class Occupation extends Occupation_Base {
         }
         setBennu(null);
         getSpaceSet().clear();
+        Signal.emit(OCCUPATION_CHANGED_SIGNAL, new DomainObjectEvent<Occupation>(this));
         super.deleteDomainObject();
     }
 
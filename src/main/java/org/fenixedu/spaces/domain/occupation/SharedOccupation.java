@@ -11,6 +11,8 @@ import org.fenixedu.bennu.FenixEduSpaceConfiguration;
 import org.fenixedu.bennu.core.domain.Bennu;
 import org.fenixedu.bennu.core.domain.User;
 import org.fenixedu.bennu.core.domain.exceptions.DomainException;
+import org.fenixedu.bennu.core.signals.DomainObjectEvent;
+import org.fenixedu.bennu.core.signals.Signal;
 import org.fenixedu.spaces.domain.Space;
 import org.fenixedu.spaces.domain.occupation.config.ExplicitConfigWithSettings;
 import org.fenixedu.spaces.domain.occupation.config.OccupationConfig;
@@ -138,6 +140,7 @@ public class SharedOccupation extends SharedOccupation_Base {
         }
         setBennu(null);
         getSpaceSet().clear();
+        Signal.emit(OCCUPATION_CHANGED_SIGNAL, new DomainObjectEvent<Occupation>(this));
         super.deleteDomainObject();
     }
 
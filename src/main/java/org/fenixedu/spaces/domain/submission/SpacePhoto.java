@@ -1,8 +1,21 @@
 package org.fenixedu.spaces.domain.submission;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
 
 import org.fenixedu.bennu.core.domain.User;
+import org.fenixedu.bennu.core.signals.DomainObjectEvent;
+import org.fenixedu.bennu.core.signals.Signal;
+import org.fenixedu.bennu.io.domain.GenericFile;
+import org.fenixedu.spaces.domain.SpaceDomainException;
+import org.joda.time.DateTime;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 public class SpacePhoto extends SpacePhoto_Base {
 
@@ -10,8 +23,13 @@ public class SpacePhoto extends SpacePhoto_Base {
         super();
         setVisible(true);
         init(filename, filename, content);
+        // hash of the submitted content, kept when the content is later normalized so resubmissions can still be recognized
+        setContentHash(hash(content));
+        Signal.emit(PHOTO_CREATED_SIGNAL, new DomainObjectEvent<SpacePhoto>(this));
     }
 
+    public static final String PHOTO_CREATED_SIGNAL = "fenixedu.spaces.photo.created";
+
     public static final Comparator<SpacePhoto> COMPARATOR_BY_INSTANT = new Comparator<SpacePhoto>() {
 
         @Override
@@ -21,6 +39,78 @@ public class SpacePhoto extends SpacePhoto_Base {
         }
     };
 
+    public static String hash(byte[] content) {
+        return Hashing.sha256().hashBytes(content).toString();
+    }
+
+    /**
+     * Replaces the scaled down versions of this photo with the given ones.
+     */
+    public void setDerivatives(Map<SpacePhotoSize, byte[]> derivatives) {
+        for (SpacePhotoDerivative derivative : new ArrayList<>(getDerivativeSet())) {
+            derivative.delete();
+        }
+        for (Entry<SpacePhotoSize, byte[]> entry : derivatives.entrySet()) {
+            new SpacePhotoDerivative(this, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Replaces the content of this photo, such as with its normalized version, together with its scaled down versions. The
+     * content is stored again under the key this photo already has in its storage, so the previous content is overwritten
+     * instead of being left behind. The hash of the submitted content is kept.
+     */
+    public void replaceContent(byte[] content, Map<SpacePhotoSize, byte[]> derivatives) {
+        setContent(content);
+        setDerivatives(derivatives);
+    }
+
+    /**
+     * When the content of this photo or of any of its scaled down versions last changed.
+     */
+    public DateTime getLastModified() {
+        DateTime lastModified = getCreationDate();
+        for (SpacePhotoDerivative derivative : getDerivativeSet()) {
+            if (derivative.getCreationDate().isAfter(lastModified)) {
+                lastModified = derivative.getCreationDate();
+            }
+        }
+        return lastModified;
+    }
+
+    public Optional<SpacePhotoDerivative> getDerivative(SpacePhotoSize size) {
+        return getDerivativeSet().stream().filter(derivative -> derivative.getPhotoSize() == size).findAny();
+    }
+
+    /**
+     * @return the file holding the photo in the given size, or the smallest larger size available
+     */
+    public GenericFile getFile(SpacePhotoSize size) {
+        for (SpacePhotoSize candidate : SpacePhotoSize.values()) {
+            if (candidate.ordinal() >= size.ordinal() && candidate.isDerivative()) {
+                Optional<SpacePhotoDerivative> derivative = getDerivative(candidate);
+                if (derivative.isPresent()) {
+                    return derivative.get();
+                }
+            }
+        }
+        return this;
+    }
+
+    public byte[] getContent(SpacePhotoSize size) {
+        return getFile(size).getContent();
+    }
+
+    /**
+     * Changes whenever the files of this photo are replaced, so it can be used to build URLs that are cached forever.
+     */
+    public String getVersion() {
+        Hasher hasher = Hashing.murmur3_32().newHasher().putString(getExternalId(), StandardCharsets.UTF_8);
+        getDerivativeSet().stream().map(SpacePhotoDerivative::getExternalId).sorted()
+                .forEach(id -> hasher.putString(id, StandardCharsets.UTF_8));
+        return hasher.hash().toString();
+    }
+
     public boolean isVisible() {
         return this.getVisible();
     }
@@ -32,6 +122,12 @@ public class SpacePhoto extends SpacePhoto_Base {
 
     @Override
     public void delete() {
+        if (!getInformationSet().isEmpty()) {
+            throw new SpaceDomainException("error.photo.in.use", String.valueOf(getInformationSet().size()));
+        }
+        for (SpacePhotoDerivative derivative : new ArrayList<>(getDerivativeSet())) {
+            derivative.delete();
+        }
         super.setSubmission(null);
         super.delete();
     }
@@ -2,7 +2,10 @@ package org.fenixedu.spaces.domain.submission;
 
 import java.util.Comparator;
 
+import org.fenixedu.bennu.core.domain.Bennu;
 import org.fenixedu.bennu.core.domain.User;
+import org.fenixedu.bennu.core.signals.DomainObjectEvent;
+import org.fenixedu.bennu.core.signals.Signal;
 import org.fenixedu.spaces.domain.Space;
 import org.fenixedu.spaces.domain.SpaceDomainException;
 import org.joda.time.DateTime;
@@ -20,6 +23,8 @@ public class SpacePhotoSubmission extends SpacePhotoSubmission_Base {
         setPhoto(photo);
     }
     
+    public static final String PENDING_CHANGED_SIGNAL = "fenixedu.spaces.photoSubmission.pendingChanged";
+
     public static final Comparator<SpacePhotoSubmission> COMPARATOR_BY_INSTANT = new Comparator<SpacePhotoSubmission>() {
 
         @Override
@@ -52,6 +57,16 @@ public class SpacePhotoSubmission extends SpacePhotoSubmission_Base {
         }
     }
 
+    /**
+     * Also keeps the submission in the global set of pending submissions while it waits for review.
+     */
+    @Override
+    public void setSpacePending(Space spacePending) {
+        super.setSpacePending(spacePending);
+        setBennuPending(spacePending == null ? null : Bennu.getInstance());
+        Signal.emit(PENDING_CHANGED_SIGNAL, new DomainObjectEvent<SpacePhotoSubmission>(this));
+    }
+
     @Override
     public void setCreated(DateTime instant) {
         if (instant == null) {
@@ -99,7 +114,7 @@ public class SpacePhotoSubmission extends SpacePhotoSubmission_Base {
         this.getPhoto().delete();
         super.setSubmitor(null);
         super.setSpace(null);
-        super.setSpacePending(null);
+        setSpacePending(null);
         super.deleteDomainObject();
     }
 
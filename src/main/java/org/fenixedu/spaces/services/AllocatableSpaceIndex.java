@@ -0,0 +1,129 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.fenixedu.bennu.core.signals.Signal;
+import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.domain.SpaceClassification;
+
+import pt.ist.fenixframework.FenixFramework;
+
+/**
+ * Active spaces of allocatable classifications, sorted by ascending allocatable capacity and then by presentation name, so
+ * the spaces that fit a given number of people best come first.
+ *
+ * The index is rebuilt after any space information or classification changes, and periodically to follow information that
+ * became valid or expired.
+ */
+public class AllocatableSpaceIndex {
+
+    private static class Entry {
+
+        private final String space;
+
+        private final String classification;
+
+        private final int capacity;
+
+        private final String name;
+
+        private Entry(Space space) {
+            this.space = space.getExternalId();
+            this.classification = space.getClassification().getExternalId();
+            this.capacity = space.getAllocatableCapacity() == null ? 0 : space.getAllocatableCapacity();
+            this.name = space.getPresentationName().toLowerCase();
+        }
+    }
+
+    private static class Snapshot {
+
+        private final List<Entry> entries;
+
+        private final int[] capacities;
+
+        private Snapshot(List<Entry> entries) {
+            this.entries = entries;
+            this.capacities = entries.stream().mapToInt(entry -> entry.capacity).toArray();
+        }
+    }
+
+    /**
+     * Position of the first of the given ascending capacities that is at least the given one, or their length if there is
+     * none.
+     */
+    static int first(int[] capacities, int minimumCapacity) {
+        int low = 0, high = capacities.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (capacities[middle] < minimumCapacity) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static final DomainSnapshot<Snapshot> snapshot = new DomainSnapshot<>(() -> new Snapshot(Space.getSpaces()
+            .filter(space -> space.getClassification().isAllocatable()).map(Entry::new)
+            .sorted(Comparator.<Entry> comparingInt(entry -> entry.capacity).thenComparing(entry -> entry.name))
+            .collect(Collectors.toList())));
+
+    static {
+        Signal.registerWithoutTransaction(Space.INFORMATION_CHANGED_SIGNAL, event -> snapshot.invalidate());
+        Signal.registerWithoutTransaction(SpaceClassification.CLASSIFICATION_CHANGED_SIGNAL, event -> snapshot.invalidate());
+    }
+
+    /**
+     * Number of allocatable spaces with at least the given capacity.
+     */
+    public static int count(int minimumCapacity) {
+        final Snapshot current = snapshot.get();
+        return current.entries.size() - first(current.capacities, minimumCapacity);
+    }
+
+    /**
+     * Allocatable spaces with at least the given capacity whose classification is one of the given ones, or of any
+     * classification if null, by ascending capacity.
+     */
+    public static List<Space> getSpaces(int minimumCapacity, Set<SpaceClassification> classifications) {
+        final Set<String> classificationIds =
+                classifications == null ? null : classifications.stream().map(SpaceClassification::getExternalId)
+                        .collect(Collectors.toSet());
+        final Snapshot current = snapshot.get();
+        final List<Space> spaces = new ArrayList<>();
+        for (Entry entry : current.entries.subList(first(current.capacities, minimumCapacity), current.entries.size())) {
+            if (classificationIds == null || classificationIds.contains(entry.classification)) {
+                final Space space = FenixFramework.getDomainObject(entry.space);
+                if (FenixFramework.isDomainObjectValid(space) && space.isActive()) {
+                    spaces.add(space);
+                }
+            }
+        }
+        return Collections.unmodifiableList(spaces);
+    }
+
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Optional;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.fenixedu.bennu.FenixEduSpaceConfiguration;
+
+import com.google.common.base.Strings;
+
+/**
+ * Image formats in which blueprints can be served.
+ *
+ * Blueprints only use black lines over white plus the yellow highlight around the selected space, so each format draws into
+ * the smallest image type able to hold those colours.
+ */
+public enum BlueprintImageFormat {
+
+    /**
+     * Two bit palettized PNG. Lossless and usually the smallest for line drawings.
+     */
+    PNG("image/png", 2) {
+        private final IndexColorModel palette = new IndexColorModel(2, 3, new byte[] { (byte) 255, 0, (byte) 255 },
+                new byte[] { (byte) 255, 0, (byte) 255 }, new byte[] { (byte) 255, 0, 0 });
+
+        @Override
+        public BufferedImage createImage(int width, int height) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY, palette);
+        }
+
+        @Override
+        public void write(BufferedImage image, OutputStream outputStream) throws IOException {
+            ImageIO.write(image, "png", outputStream);
+        }
+    },
+
+    /**
+     * Progressive JPEG, so large blueprints show up before they are fully downloaded.
+     */
+    JPEG("image/jpeg", 24) {
+        @Override
+        public BufferedImage createImage(int width, int height) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        }
+
+        @Override
+        public void write(BufferedImage image, OutputStream outputStream) throws IOException {
+            final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            final ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(Float.parseFloat(FenixEduSpaceConfiguration.getConfiguration().blueprintJpegQuality()));
+            try (ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(outputStream)) {
+                writer.setOutput(imageOutputStream);
+                writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+        }
+    };
+
+    private final String mediaType;
+
+    private final int bitsPerPixel;
+
+    private BlueprintImageFormat(String mediaType, int bitsPerPixel) {
+        this.mediaType = mediaType;
+        this.bitsPerPixel = bitsPerPixel;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    public int getBitsPerPixel() {
+        return bitsPerPixel;
+    }
+
+    public abstract BufferedImage createImage(int width, int height);
+
+    public abstract void write(BufferedImage image, OutputStream outputStream) throws IOException;
+
+    public static BlueprintImageFormat getDefault() {
+        return valueOf(FenixEduSpaceConfiguration.getConfiguration().blueprintImageFormat().toUpperCase(Locale.ENGLISH));
+    }
+
+    public static Optional<BlueprintImageFormat> fromName(String name) {
+        final String trimmed = Strings.nullToEmpty(name).trim();
+        for (BlueprintImageFormat format : values()) {
+            if (format.name().equalsIgnoreCase(trimmed) || format.mediaType.equalsIgnoreCase(trimmed)
+                    || (format == JPEG && "jpg".equalsIgnoreCase(trimmed))) {
+                return Optional.of(format);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Picks the format asked for explicitly, or else the first one named in the given Accept header, or else the default.
+     * Wildcards in the Accept header select the default.
+     */
+    public static BlueprintImageFormat select(String requested, String accept) {
+        final Optional<BlueprintImageFormat> format = fromName(requested);
+        if (format.isPresent()) {
+            return format.get();
+        }
+        for (String range : Strings.nullToEmpty(accept).split(",")) {
+            final String mediaType = range.split(";")[0].trim();
+            if (mediaType.endsWith("*")) {
+                break;
+            }
+            final Optional<BlueprintImageFormat> accepted = fromName(mediaType);
+            if (accepted.isPresent()) {
+                return accepted.get();
+            }
+        }
+        return getDefault();
+    }
+
+}
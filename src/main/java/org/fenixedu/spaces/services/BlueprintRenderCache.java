@@ -0,0 +1,189 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.fenixedu.bennu.FenixEduSpaceConfiguration;
+import org.fenixedu.spaces.domain.BlueprintFile;
+import org.fenixedu.spaces.domain.BlueprintFile.BlueprintTextRectangle;
+import org.fenixedu.spaces.domain.BlueprintFile.BlueprintTextRectangles;
+import org.fenixedu.spaces.domain.Space;
+import org.joda.time.DateTime;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Keeps the default view of blueprints already rendered, together with the rectangles of the labels linking to each child
+ * space.
+ *
+ * Entries are kept per space holding the blueprint and are only served while the blueprint file and the labels of its
+ * children are the ones they were rendered with.
+ */
+public class BlueprintRenderCache {
+
+    public static final BigDecimal DEFAULT_SCALE = BigDecimal.valueOf(50);
+
+    public static enum Status {
+        PENDING, READY, FAILED;
+    }
+
+    public static class RenderedBlueprint {
+
+        private final String fingerprint;
+
+        private final BlueprintImageFormat format;
+
+        private final byte[] image;
+
+        private final Map<String, List<BlueprintTextRectangle>> links = new HashMap<>();
+
+        public RenderedBlueprint(String fingerprint, BlueprintImageFormat format, byte[] image, BlueprintTextRectangles links) {
+            this.fingerprint = fingerprint;
+            this.format = format;
+            this.image = image;
+            for (Entry<Space, List<BlueprintTextRectangle>> entry : links.entrySet()) {
+                this.links.put(entry.getKey().getExternalId(), new ArrayList<>(entry.getValue()));
+            }
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public BlueprintImageFormat getFormat() {
+            return format;
+        }
+
+        public byte[] getImage() {
+            return image;
+        }
+
+        /**
+         * @return the external id of the space whose label covers the given point
+         */
+        public Optional<String> findSpaceAt(int x, int y) {
+            for (Entry<String, List<BlueprintTextRectangle>> entry : links.entrySet()) {
+                for (BlueprintTextRectangle rectangle : entry.getValue()) {
+                    if (rectangle.contains(x, y)) {
+                        return Optional.of(entry.getKey());
+                    }
+                }
+            }
+            return Optional.empty();
+        }
+    }
+
+    private static final Cache<String, RenderedBlueprint> renders = CacheBuilder.newBuilder()
+            .maximumWeight(FenixEduSpaceConfiguration.getConfiguration().blueprintCacheSizeInMegabytes() * 1024L * 1024L)
+            .weigher((String key, RenderedBlueprint rendered) -> rendered.getImage().length).build();
+
+    private static final Cache<String, DWGProcessor.ParsedBlueprint> parsed = CacheBuilder.newBuilder()
+            .maximumSize(FenixEduSpaceConfiguration.getConfiguration().blueprintParsedCacheSize()).build();
+
+    private static final Cache<String, Status> statuses = CacheBuilder.newBuilder().maximumSize(10000).build();
+
+    /**
+     * The given blueprint file read at the given scale ratio, parsed only if it is not cached. Blueprint files never change
+     * their content, so entries never become stale.
+     */
+    static DWGProcessor.ParsedBlueprint getParsed(BlueprintFile blueprintFile, int scaleRatio,
+            Callable<DWGProcessor.ParsedBlueprint> parser) throws IOException {
+        try {
+            return parsed.get(blueprintFile.getExternalId() + ":" + scaleRatio, parser);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Whether the requested rendering is the default view of the space holding the blueprint, the one kept in this cache.
+     */
+    public static boolean isDefaultView(Space space, Space blueprintSpace, BigDecimal scale, Boolean viewOriginalSpaceBlueprint,
+            Boolean viewBlueprintNumbers, Boolean viewIdentifications, Boolean viewDoorNumbers, Rectangle viewport) {
+        return blueprintSpace != null && blueprintSpace.equals(space) && viewport == null && scale != null
+                && DEFAULT_SCALE.compareTo(scale) == 0 && !Boolean.TRUE.equals(viewOriginalSpaceBlueprint)
+                && !Boolean.TRUE.equals(viewBlueprintNumbers) && Boolean.TRUE.equals(viewIdentifications)
+                && !Boolean.TRUE.equals(viewDoorNumbers);
+    }
+
+    public static Optional<RenderedBlueprint> get(Space blueprintSpace, BlueprintImageFormat format) {
+        final RenderedBlueprint rendered = renders.getIfPresent(key(blueprintSpace, format));
+        if (rendered != null && rendered.getFingerprint().equals(fingerprint(blueprintSpace))) {
+            return Optional.of(rendered);
+        }
+        return Optional.empty();
+    }
+
+    public static void put(Space blueprintSpace, RenderedBlueprint rendered) {
+        renders.put(key(blueprintSpace, rendered.getFormat()), rendered);
+    }
+
+    private static String key(Space blueprintSpace, BlueprintImageFormat format) {
+        return blueprintSpace.getExternalId() + ":" + format.name();
+    }
+
+    /**
+     * Identifies what a rendering of the blueprint of the given space depends on: the blueprint file, and the blueprint numbers
+     * and current information of its children, which holds every label that may be drawn for them, door numbers included.
+     */
+    public static String fingerprint(Space blueprintSpace) {
+        final DateTime now = new DateTime();
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putString(blueprintSpace.getBlueprintFile(now).map(BlueprintFile::getExternalId).orElse(""),
+                StandardCharsets.UTF_8);
+        for (Entry<String, Space> entry : new TreeMap<>(blueprintSpace.getChildrenByBlueprintNumber(now)).entrySet()) {
+            hasher.putString(entry.getKey(), StandardCharsets.UTF_8);
+            hasher.putString(entry.getValue().getExternalId(), StandardCharsets.UTF_8);
+            hasher.putString(entry.getValue().getInformationId(now).orElse(""), StandardCharsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
+    public static Optional<Status> getStatus(Space space) {
+        return space.getBlueprintFile().map(blueprint -> statuses.getIfPresent(blueprint.getExternalId()));
+    }
+
+    static void setStatus(String blueprintId, Status status) {
+        statuses.put(blueprintId, status);
+    }
+
+    static void clearStatus(String blueprintId) {
+        statuses.invalidate(blueprintId);
+    }
+
+}
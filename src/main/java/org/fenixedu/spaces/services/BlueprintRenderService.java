@@ -0,0 +1,248 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.awt.Rectangle;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.servlet.UnavailableException;
+
+import org.fenixedu.bennu.FenixEduSpaceConfiguration;
+import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.services.BlueprintRenderCache.RenderedBlueprint;
+import org.joda.time.DateTime;
+
+import pt.ist.fenixframework.Atomic;
+import pt.ist.fenixframework.Atomic.TxMode;
+import pt.ist.fenixframework.FenixFramework;
+
+import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Renders blueprints on a dedicated pool of threads instead of the request threads.
+ *
+ * At most a configurable number of blueprints are rendered at the same time, and the images being drawn may not take more
+ * than a configurable amount of memory, estimated from their size in pixels. Identical renderings requested while one is in
+ * progress wait for that one instead of starting their own. Requests that cannot be served within the configured time are
+ * refused as unavailable.
+ */
+public class BlueprintRenderService {
+
+    private static final int RETRY_AFTER_SECONDS = 5;
+
+    private static volatile ThreadPoolExecutor executor;
+
+    private static final int memoryBudgetInKilobytes = FenixEduSpaceConfiguration.getConfiguration()
+            .blueprintRenderMemoryInMegabytes() * 1024;
+
+    private static final Semaphore memoryBudget = new Semaphore(memoryBudgetInKilobytes, true);
+
+    private static final ConcurrentMap<String, FutureTask<Object>> inFlight = new ConcurrentHashMap<>();
+
+    public static synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        final int threads = FenixEduSpaceConfiguration.getConfiguration().blueprintRenderThreads();
+        final int queueSize = FenixEduSpaceConfiguration.getConfiguration().blueprintRenderQueueSize();
+        executor =
+                new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                        new ThreadFactoryBuilder().setNameFormat("blueprint-render-%d").setDaemon(true).build());
+    }
+
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Memory reserved for drawing an image, to be released once the image is no longer needed.
+     */
+    public static class MemoryReservation implements AutoCloseable {
+
+        private final int kilobytes;
+
+        private MemoryReservation(int kilobytes) {
+            this.kilobytes = kilobytes;
+        }
+
+        @Override
+        public void close() {
+            memoryBudget.release(kilobytes);
+        }
+    }
+
+    private static class RenderTimeoutException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private RenderTimeoutException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Waits until the given amount of memory fits in the rendering budget. Images larger than the whole budget are drawn
+     * alone.
+     *
+     * @throws IOException if the memory does not become available within the configured time
+     */
+    public static MemoryReservation reserveMemory(long bytes) throws IOException {
+        final int kilobytes = (int) Math.max(1, Math.min(memoryBudgetInKilobytes, (bytes + 1023) / 1024));
+        try {
+            if (!memoryBudget.tryAcquire(kilobytes, getTimeoutInSeconds(), TimeUnit.SECONDS)) {
+                throw new RenderTimeoutException("Timed out waiting for " + kilobytes + "KB to render blueprint");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RenderTimeoutException("Interrupted while waiting to render blueprint");
+        }
+        return new MemoryReservation(kilobytes);
+    }
+
+    /**
+     * Renders the blueprint of the given space in the given format, as it is at the given instant or, if that is null, as it
+     * is now. Renderings of the present are shared while the blueprint and the labels of its children stay the same.
+     *
+     * @see SpaceBlueprintsDWGProcessor#writeBlueprint(Space, DateTime, Boolean, Boolean, Boolean, Boolean, BigDecimal,
+     *      Rectangle, BlueprintImageFormat, java.io.OutputStream)
+     */
+    public static byte[] render(Space space, DateTime when, Boolean viewOriginalSpaceBlueprint, Boolean viewBlueprintNumbers,
+            Boolean viewIdentifications, Boolean viewDoorNumbers, BigDecimal scale, Rectangle viewport,
+            BlueprintImageFormat format) throws IOException, UnavailableException {
+        final String spaceId = space.getExternalId();
+        final String instant;
+        if (when != null) {
+            instant = String.valueOf(when.getMillis());
+        } else {
+            final Space blueprintSpace = SpaceBlueprintsDWGProcessor.getSuroundingSpaceMostRecentBlueprint(space);
+            instant = "now-" + (blueprintSpace == null ? "" : BlueprintRenderCache.fingerprint(blueprintSpace));
+        }
+        final String key =
+                Joiner.on(':').useForNull("").join(spaceId, instant, viewOriginalSpaceBlueprint, viewBlueprintNumbers,
+                        viewIdentifications, viewDoorNumbers, scale.stripTrailingZeros().toPlainString(),
+                        viewport == null ? null : viewport.x, viewport == null ? null : viewport.y,
+                        viewport == null ? null : viewport.width, viewport == null ? null : viewport.height, format);
+        return (byte[]) submit(key, () -> renderInTransaction(spaceId, when == null ? new DateTime() : when,
+                viewOriginalSpaceBlueprint, viewBlueprintNumbers, viewIdentifications, viewDoorNumbers, scale, viewport, format));
+    }
+
+    /**
+     * The default view of the blueprint of the given space, from the cache or rendered if it is not there.
+     */
+    public static RenderedBlueprint renderDefaultView(Space blueprintSpace, BlueprintImageFormat format) throws IOException,
+            UnavailableException {
+        final Optional<RenderedBlueprint> cached = BlueprintRenderCache.get(blueprintSpace, format);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        final String spaceId = blueprintSpace.getExternalId();
+        return (RenderedBlueprint) submit("default:" + spaceId + ":" + format,
+                () -> renderDefaultViewInTransaction(spaceId, format));
+    }
+
+    @Atomic(mode = TxMode.READ)
+    static byte[] renderInTransaction(String spaceId, DateTime when, Boolean viewOriginalSpaceBlueprint,
+            Boolean viewBlueprintNumbers, Boolean viewIdentifications, Boolean viewDoorNumbers, BigDecimal scale,
+            Rectangle viewport, BlueprintImageFormat format) throws IOException, UnavailableException {
+        final ByteArrayOutputStream image = new ByteArrayOutputStream();
+        SpaceBlueprintsDWGProcessor.writeBlueprint(FenixFramework.getDomainObject(spaceId), when, viewOriginalSpaceBlueprint,
+                viewBlueprintNumbers, viewIdentifications, viewDoorNumbers, scale, viewport, format, image);
+        return image.toByteArray();
+    }
+
+    @Atomic(mode = TxMode.READ)
+    static RenderedBlueprint renderDefaultViewInTransaction(String spaceId, BlueprintImageFormat format) throws IOException {
+        final Space blueprintSpace = FenixFramework.getDomainObject(spaceId);
+        final Optional<RenderedBlueprint> cached = BlueprintRenderCache.get(blueprintSpace, format);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        final RenderedBlueprint rendered = SpaceBlueprintsDWGProcessor.renderDefaultView(blueprintSpace, format);
+        BlueprintRenderCache.put(blueprintSpace, rendered);
+        return rendered;
+    }
+
+    private static Object submit(String key, Callable<Object> render) throws IOException, UnavailableException {
+        final FutureTask<Object> task = new FutureTask<Object>(() -> {
+            try {
+                return render.call();
+            } finally {
+                inFlight.remove(key);
+            }
+        });
+        final ThreadPoolExecutor executor = BlueprintRenderService.executor;
+        if (executor == null) {
+            throw new UnavailableException("Blueprint rendering is not running", RETRY_AFTER_SECONDS);
+        }
+        FutureTask<Object> running = inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                inFlight.remove(key, task);
+                throw new UnavailableException("Too many blueprints being rendered", RETRY_AFTER_SECONDS);
+            }
+        }
+
+        try {
+            return running.get(getTimeoutInSeconds(), TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new UnavailableException("Timed out waiting for blueprint to be rendered", RETRY_AFTER_SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnavailableException("Interrupted while waiting for blueprint to be rendered", RETRY_AFTER_SECONDS);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RenderTimeoutException) {
+                throw new UnavailableException(cause.getMessage(), RETRY_AFTER_SECONDS);
+            }
+            if (cause instanceof UnavailableException) {
+                throw (UnavailableException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static int getTimeoutInSeconds() {
+        return FenixEduSpaceConfiguration.getConfiguration().blueprintRenderTimeoutInSeconds();
+    }
+
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.fenixedu.bennu.FenixEduSpaceConfiguration;
+import org.fenixedu.bennu.core.signals.DomainObjectEvent;
+import org.fenixedu.bennu.core.signals.Signal;
+import org.fenixedu.spaces.domain.BlueprintFile;
+import org.fenixedu.spaces.domain.Information;
+import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.services.BlueprintRenderCache.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ist.fenixframework.Atomic;
+import pt.ist.fenixframework.Atomic.TxMode;
+import pt.ist.fenixframework.FenixFramework;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Parses, validates and pre-renders blueprints in the background as soon as they are uploaded, so that the first viewer does
+ * not pay for it and broken DWG files are reported while the uploader is still around. Blueprints already stored are
+ * rendered again for the new space versions that reuse them.
+ *
+ * Work is done by a fixed number of workers over a bounded queue. When the queue is full the blueprint is not pre-rendered and
+ * will be rendered on its first view instead.
+ */
+public class BlueprintRenderingPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlueprintRenderingPipeline.class);
+
+    private static ThreadPoolExecutor executor;
+
+    public static synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        final int threads = FenixEduSpaceConfiguration.getConfiguration().blueprintPrerenderThreads();
+        final int queueSize = FenixEduSpaceConfiguration.getConfiguration().blueprintPrerenderQueueSize();
+        executor =
+                new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                        new ThreadFactoryBuilder().setNameFormat("blueprint-prerender-%d").setDaemon(true).build());
+        Signal.registerWithoutTransaction(BlueprintFile.BLUEPRINT_ATTACHED_SIGNAL,
+                (DomainObjectEvent<BlueprintFile> event) -> submit(event.getInstance()));
+    }
+
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    public static void submit(BlueprintFile blueprint) {
+        final ThreadPoolExecutor executor = BlueprintRenderingPipeline.executor;
+        if (executor == null) {
+            return;
+        }
+        final String blueprintId = blueprint.getExternalId();
+        BlueprintRenderCache.setStatus(blueprintId, Status.PENDING);
+        try {
+            executor.execute(() -> preRender(blueprintId));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Too many blueprints waiting to be pre-rendered, {} will be rendered on its first view", blueprintId);
+            BlueprintRenderCache.clearStatus(blueprintId);
+        }
+    }
+
+    private static void preRender(String blueprintId) {
+        try {
+            preRender((BlueprintFile) FenixFramework.getDomainObject(blueprintId));
+            BlueprintRenderCache.setStatus(blueprintId, Status.READY);
+        } catch (Exception e) {
+            logger.error("Could not pre-render blueprint " + blueprintId, e);
+            BlueprintRenderCache.setStatus(blueprintId, Status.FAILED);
+        }
+    }
+
+    @Atomic(mode = TxMode.READ)
+    public static void preRender(BlueprintFile blueprint) throws Exception {
+        for (Space space : getSpacesShowing(blueprint)) {
+            BlueprintRenderCache.put(space,
+                    SpaceBlueprintsDWGProcessor.renderDefaultView(space, BlueprintImageFormat.getDefault()));
+        }
+    }
+
+    private static Set<Space> getSpacesShowing(BlueprintFile blueprint) {
+        final Set<Space> spaces = new HashSet<>();
+        for (Information information : blueprint.getInformationSet()) {
+            collectSpaces(information, spaces);
+        }
+        spaces.removeIf(space -> !space.isActive() || !blueprint.equals(space.getBlueprintFile().orElse(null)));
+        return spaces;
+    }
+
+    private static void collectSpaces(Information information, Set<Space> spaces) {
+        spaces.addAll(information.getSpaceSet());
+        if (information.getSpaceHistory() != null) {
+            spaces.add(information.getSpaceHistory());
+        }
+        for (Information next : information.getInformationSet()) {
+            collectSpaces(next, spaces);
+        }
+    }
+
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import com.iver.cit.jdwglib.dwg.DwgObject;
+import com.iver.cit.jdwglib.dwg.objects.DwgArc;
+import com.iver.cit.jdwglib.dwg.objects.DwgCircle;
+import com.iver.cit.jdwglib.dwg.objects.DwgEllipse;
+import com.iver.cit.jdwglib.dwg.objects.DwgLine;
+import com.iver.cit.jdwglib.dwg.objects.DwgLwPolyline;
+import com.iver.cit.jdwglib.dwg.objects.DwgMText;
+import com.iver.cit.jdwglib.dwg.objects.DwgText;
+
+/**
+ * Uniform grid over the bounding boxes of the drawable objects of a blueprint, in DWG coordinates.
+ *
+ * Objects are always returned in their original drawing order.
+ */
+public class BlueprintSpatialIndex {
+
+    private static final int MAX_CELLS_PER_AXIS = 256;
+
+    /**
+     * The grid itself, over boxes identified by their position in the list it was built from.
+     */
+    static class Grid {
+
+        private final List<double[]> bounds;
+
+        private double minX = Double.MAX_VALUE;
+
+        private double minY = Double.MAX_VALUE;
+
+        private double maxX = Double.MAX_VALUE * -1.0;
+
+        private double maxY = Double.MAX_VALUE * -1.0;
+
+        private final int cellsPerAxis;
+
+        private final double cellWidth;
+
+        private final double cellHeight;
+
+        private final int[][] cells;
+
+        Grid(final List<double[]> bounds) {
+            this.bounds = bounds;
+            for (final double[] box : bounds) {
+                minX = Math.min(minX, box[0]);
+                minY = Math.min(minY, box[1]);
+                maxX = Math.max(maxX, box[2]);
+                maxY = Math.max(maxY, box[3]);
+            }
+
+            cellsPerAxis = Math.max(1, Math.min(MAX_CELLS_PER_AXIS, (int) Math.ceil(Math.sqrt(bounds.size()))));
+            cellWidth = bounds.isEmpty() || maxX <= minX ? 1 : (maxX - minX) / cellsPerAxis;
+            cellHeight = bounds.isEmpty() || maxY <= minY ? 1 : (maxY - minY) / cellsPerAxis;
+
+            final List<List<Integer>> cellContents = new ArrayList<>(cellsPerAxis * cellsPerAxis);
+            for (int i = 0; i < cellsPerAxis * cellsPerAxis; i++) {
+                cellContents.add(new ArrayList<>());
+            }
+            for (int i = 0; i < bounds.size(); i++) {
+                final double[] box = bounds.get(i);
+                for (int column = column(box[0]); column <= column(box[2]); column++) {
+                    for (int row = row(box[1]); row <= row(box[3]); row++) {
+                        cellContents.get(row * cellsPerAxis + column).add(i);
+                    }
+                }
+            }
+
+            cells = new int[cellContents.size()][];
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = cellContents.get(i).stream().mapToInt(Integer::intValue).toArray();
+            }
+        }
+
+        private int column(final double x) {
+            return Math.max(0, Math.min(cellsPerAxis - 1, (int) ((x - minX) / cellWidth)));
+        }
+
+        private int row(final double y) {
+            return Math.max(0, Math.min(cellsPerAxis - 1, (int) ((y - minY) / cellHeight)));
+        }
+
+        /**
+         * Positions of the boxes that intersect the given rectangle, edges included.
+         */
+        BitSet query(final double queryMinX, final double queryMinY, final double queryMaxX, final double queryMaxY) {
+            final BitSet matches = new BitSet(bounds.size());
+            if (bounds.isEmpty() || queryMaxX < minX || queryMinX > maxX || queryMaxY < minY || queryMinY > maxY) {
+                return matches;
+            }
+
+            for (int column = column(queryMinX); column <= column(queryMaxX); column++) {
+                for (int row = row(queryMinY); row <= row(queryMaxY); row++) {
+                    for (final int i : cells[row * cellsPerAxis + column]) {
+                        if (!matches.get(i)) {
+                            final double[] box = bounds.get(i);
+                            if (box[0] <= queryMaxX && box[2] >= queryMinX && box[1] <= queryMaxY && box[3] >= queryMinY) {
+                                matches.set(i);
+                            }
+                        }
+                    }
+                }
+            }
+            return matches;
+        }
+    }
+
+    private final List<DwgObject> objects = new ArrayList<>();
+
+    private final Grid grid;
+
+    public BlueprintSpatialIndex(final List<DwgObject> dwgObjects) {
+        final List<double[]> bounds = new ArrayList<>();
+        for (final DwgObject dwgObject : dwgObjects) {
+            final double[] objectBounds = getBounds(dwgObject);
+            if (objectBounds != null) {
+                objects.add(dwgObject);
+                bounds.add(objectBounds);
+            }
+        }
+        grid = new Grid(bounds);
+    }
+
+    /**
+     * All the drawable objects of the blueprint.
+     */
+    public List<DwgObject> getObjects() {
+        return Collections.unmodifiableList(objects);
+    }
+
+    /**
+     * Drawable objects whose bounding box intersects the given rectangle.
+     */
+    public List<DwgObject> query(final double queryMinX, final double queryMinY, final double queryMaxX,
+            final double queryMaxY) {
+        final BitSet matches = grid.query(queryMinX, queryMinY, queryMaxX, queryMaxY);
+        final List<DwgObject> result = new ArrayList<>(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            result.add(objects.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Bounding box of a drawable object as {minX, minY, maxX, maxY}, or null if the object is not drawn. Texts are indexed by
+     * their insertion point, since their extent depends on the rendered label.
+     */
+    static double[] getBounds(final DwgObject dwgObject) {
+        if (dwgObject instanceof DwgLine) {
+            final DwgLine dwgLine = (DwgLine) dwgObject;
+            return box(dwgLine.getP1()[0], dwgLine.getP1()[1], dwgLine.getP2()[0], dwgLine.getP2()[1]);
+
+        } else if (dwgObject instanceof DwgArc) {
+            final DwgArc dwgArc = (DwgArc) dwgObject;
+            return around(dwgArc.getCenter()[0], dwgArc.getCenter()[1], Math.abs(dwgArc.getRadius()));
+
+        } else if (dwgObject instanceof DwgCircle) {
+            final DwgCircle dwgCircle = (DwgCircle) dwgObject;
+            return around(dwgCircle.getCenter()[0], dwgCircle.getCenter()[1], Math.abs(dwgCircle.getRadius()));
+
+        } else if (dwgObject instanceof DwgEllipse) {
+            final DwgEllipse dwgEllipse = (DwgEllipse) dwgObject;
+            final double radius =
+                    Math.max(Math.abs(DWGProcessor.ReferenceConverter.getEllipseWidth(dwgEllipse)),
+                            Math.abs(DWGProcessor.ReferenceConverter.getEllipseHeigth(dwgEllipse)));
+            return around(dwgEllipse.getCenter()[0], dwgEllipse.getCenter()[1], radius);
+
+        } else if (dwgObject instanceof DwgLwPolyline) {
+            final Point2D[] vertices = ((DwgLwPolyline) dwgObject).getVertices();
+            if (vertices == null || vertices.length < 2) {
+                return null;
+            }
+            final double[] box = box(vertices[0].getX(), vertices[0].getY(), vertices[0].getX(), vertices[0].getY());
+            for (final Point2D vertex : vertices) {
+                box[0] = Math.min(box[0], vertex.getX());
+                box[1] = Math.min(box[1], vertex.getY());
+                box[2] = Math.max(box[2], vertex.getX());
+                box[3] = Math.max(box[3], vertex.getY());
+            }
+            return box;
+
+        } else if (dwgObject instanceof DwgText) {
+            final Point2D point2D = ((DwgText) dwgObject).getInsertionPoint();
+            return box(point2D.getX(), point2D.getY(), point2D.getX(), point2D.getY());
+
+        } else if (dwgObject instanceof DwgMText) {
+            final double[] point = ((DwgMText) dwgObject).getInsertionPoint();
+            return box(point[0], point[1], point[0], point[1]);
+        }
+        return null;
+    }
+
+    private static double[] around(final double xc, final double yc, final double radius) {
+        return new double[] { xc - radius, yc - radius, xc + radius, yc + radius };
+    }
+
+    private static double[] box(final double x1, final double y1, final double x2, final double y2) {
+        return new double[] { Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2) };
+    }
+
+}
@@ -21,18 +21,20 @@ package org.fenixedu.spaces.services;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.util.List;
 import java.util.UUID;
 import java.util.Vector;
 
-import javax.imageio.ImageIO;
-
 import org.fenixedu.bennu.FenixEduSpaceConfiguration;
+import org.fenixedu.spaces.domain.BlueprintFile;
+import org.fenixedu.spaces.services.BlueprintRenderService.MemoryReservation;
 
 import com.google.common.io.Files;
 import com.iver.cit.jdwglib.dwg.DwgFile;
@@ -61,6 +63,8 @@ public class DWGProcessor {
 
     private static final String FONT_NAME = "Bitstream Vera Sans Mono";
 
+    protected static final int TEXT_MARGIN_CHARACTERS = 32;
+
     protected final int scaleRatio;
 
     protected final int fontSize;
@@ -108,37 +112,106 @@ public class DWGProcessor {
     private static final String TEMPORARY_FILE_GLOBAL_UNIQUE_NAME_PREFIX = UUID.randomUUID().toString();
 
     public void generateJPEGImage(byte[] bytes, final OutputStream outputStream) throws IOException {
+        generateJPEGImage(bytes, null, outputStream);
+    }
 
-        final File file = File.createTempFile(TEMPORARY_FILE_GLOBAL_UNIQUE_NAME_PREFIX, "");
-        file.deleteOnExit();
-        Files.write(bytes, file);
-        generateJPEGImage(file.getAbsolutePath(), outputStream);
+    public void generateJPEGImage(byte[] bytes, final Rectangle viewport, final OutputStream outputStream) throws IOException {
+        generateImage(parse(bytes), viewport, BlueprintImageFormat.JPEG, outputStream);
     }
 
     public void generateJPEGImage(final String filename, final OutputStream outputStream) throws IOException {
+        generateJPEGImage(filename, null, outputStream);
+    }
 
-        final BufferedImage bufferedImage = process(filename, outputStream);
-        ImageIO.write(bufferedImage, "jpg", outputStream);
+    public void generateJPEGImage(final String filename, final Rectangle viewport, final OutputStream outputStream)
+            throws IOException {
+        generateImage(parse(filename), viewport, BlueprintImageFormat.JPEG, outputStream);
+    }
+
+    public void generateImage(byte[] bytes, final Rectangle viewport, final BlueprintImageFormat format,
+            final OutputStream outputStream) throws IOException {
+        generateImage(parse(bytes), viewport, format, outputStream);
+    }
+
+    protected void generateImage(final ParsedBlueprint blueprint, final Rectangle viewport, final BlueprintImageFormat format,
+            final OutputStream outputStream) throws IOException {
+        try (MemoryReservation reservation = BlueprintRenderService.reserveMemory(getImageSize(blueprint, viewport, format))) {
+            format.write(process(blueprint, viewport, format), outputStream);
+        }
         outputStream.close();
     }
 
+    /**
+     * A blueprint read from its DWG file, with the coordinate conversion for this processor's scale and the spatial index of
+     * its drawable objects.
+     */
+    protected static class ParsedBlueprint {
+
+        protected final Vector<DwgObject> dwgObjects;
+
+        protected final ReferenceConverter referenceConverter;
+
+        protected final BlueprintSpatialIndex index;
+
+        private ParsedBlueprint(Vector<DwgObject> dwgObjects, int scaleRatio) {
+            this.dwgObjects = dwgObjects;
+            this.referenceConverter = new ReferenceConverter(dwgObjects, scaleRatio);
+            this.index = new BlueprintSpatialIndex(dwgObjects);
+        }
+
+        public Rectangle getImageBounds() {
+            return new Rectangle(0, 0, (int) referenceConverter.convX(referenceConverter.maxX),
+                    (int) referenceConverter.convY(referenceConverter.minY));
+        }
+    }
+
+    protected ParsedBlueprint parse(final byte[] bytes) throws IOException {
+        final File file = File.createTempFile(TEMPORARY_FILE_GLOBAL_UNIQUE_NAME_PREFIX, "");
+        file.deleteOnExit();
+        try {
+            Files.write(bytes, file);
+            return parse(file.getAbsolutePath());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * The given blueprint file read at this processor's scale, shared with other processors through the render cache.
+     */
+    protected ParsedBlueprint parse(final BlueprintFile blueprintFile) throws IOException {
+        return BlueprintRenderCache.getParsed(blueprintFile, scaleRatio, () -> parse(blueprintFile.getContent()));
+    }
+
+    protected ParsedBlueprint parse(final String filename) throws IOException {
+        return new ParsedBlueprint(readDwgFile(filename).getDwgObjects(), scaleRatio);
+    }
+
     protected BufferedImage process(final String filename, final OutputStream outputStream) throws IOException {
+        return process(parse(filename), null, BlueprintImageFormat.JPEG);
+    }
+
+    /**
+     * Renders the blueprint, or only the part of it inside the viewport (in image coordinates) when one is given.
+     */
+    protected BufferedImage process(final ParsedBlueprint blueprint, final Rectangle viewport,
+            final BlueprintImageFormat format) {
+
+        final ReferenceConverter referenceConverter = blueprint.referenceConverter;
+        final Rectangle area = getImageArea(blueprint, viewport);
+        final int width = Math.max(1, area.width);
+        final int height = Math.max(1, area.height);
 
-        final DwgFile dwgFile = readDwgFile(filename);
-        final Vector<DwgObject> dwgObjects = dwgFile.getDwgObjects();
-        final ReferenceConverter referenceConverter = new ReferenceConverter(dwgObjects, scaleRatio);
-        final BufferedImage bufferedImage =
-                new BufferedImage((int) referenceConverter.convX(referenceConverter.maxX),
-                        (int) referenceConverter.convY(referenceConverter.minY), BufferedImage.TYPE_INT_RGB);
+        final BufferedImage bufferedImage = format.createImage(width, height);
         final Graphics2D graphics2D = bufferedImage.createGraphics();
 
         graphics2D.setFont(new Font(FONT_NAME, Font.PLAIN, fontSize));
         graphics2D.setBackground(Color.WHITE);
         graphics2D.setColor(Color.BLACK);
-        graphics2D.clearRect(0, 0, (int) referenceConverter.convX(referenceConverter.maxX),
-                (int) referenceConverter.convY(referenceConverter.minY));
+        graphics2D.clearRect(0, 0, width, height);
+        graphics2D.translate(-area.x, -area.y);
 
-        for (final DwgObject dwgObject : dwgObjects) {
+        for (final DwgObject dwgObject : getObjectsToDraw(referenceConverter, blueprint.index, viewport == null ? null : area)) {
             drawObject(referenceConverter, graphics2D, dwgObject);
         }
 
@@ -146,6 +219,39 @@ public class DWGProcessor {
         return bufferedImage;
     }
 
+    protected Rectangle getImageArea(final ParsedBlueprint blueprint, final Rectangle viewport) {
+        final Rectangle imageBounds = blueprint.getImageBounds();
+        return viewport == null ? imageBounds : viewport.intersection(imageBounds);
+    }
+
+    /**
+     * Memory, in bytes, taken by the image drawn for the given viewport.
+     */
+    protected long getImageSize(final ParsedBlueprint blueprint, final Rectangle viewport, final BlueprintImageFormat format) {
+        final Rectangle area = getImageArea(blueprint, viewport);
+        return (long) Math.max(1, area.width) * Math.max(1, area.height) * format.getBitsPerPixel() / 8;
+    }
+
+    protected List<DwgObject> getObjectsToDraw(final ReferenceConverter referenceConverter, final BlueprintSpatialIndex index,
+            final Rectangle area) {
+        if (area == null) {
+            return index.getObjects();
+        }
+        // labels are indexed by their insertion point but are drawn to its right and above it
+        final int margin = TEXT_MARGIN_CHARACTERS * fontSize;
+        return query(referenceConverter, index, area.x - margin, area.y - margin, area.x + area.width + margin, area.y
+                + area.height + margin);
+    }
+
+    protected static List<DwgObject> query(final ReferenceConverter referenceConverter, final BlueprintSpatialIndex index,
+            final int x1, final int y1, final int x2, final int y2) {
+        final double dwgX1 = referenceConverter.unconvX(x1);
+        final double dwgX2 = referenceConverter.unconvX(x2);
+        final double dwgY1 = referenceConverter.unconvY(y1);
+        final double dwgY2 = referenceConverter.unconvY(y2);
+        return index.query(Math.min(dwgX1, dwgX2), Math.min(dwgY1, dwgY2), Math.max(dwgX1, dwgX2), Math.max(dwgY1, dwgY2));
+    }
+
     private void drawObject(final ReferenceConverter referenceConverter, final Graphics2D graphics2D, final DwgObject dwgObject) {
 
         if (dwgObject instanceof DwgLine) {
@@ -540,6 +646,14 @@ public class DWGProcessor {
         public double convY(final double y) {
             return (maxY - y) * scaleRatio / maxX;
         }
+
+        public double unconvX(final double x) {
+            return x * maxX / scaleRatio + minX;
+        }
+
+        public double unconvY(final double y) {
+            return maxY - y * maxX / scaleRatio;
+        }
     }
 
 }
@@ -0,0 +1,237 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import pt.ist.fenixframework.Atomic;
+import pt.ist.fenixframework.Atomic.TxMode;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A value computed from the domain, such as an index, shared by all threads until it is invalidated or becomes older than
+ * five minutes, so that changes made in other servers are followed as well.
+ *
+ * The value is built, and updated for the objects reported as changed, in a read transaction started after the change was
+ * reported, never in the transaction of the caller, which may have started before the change was committed. Values that are
+ * only rebuilt are never modified once built. Values updated in place are only read through {@link #read(Function)}, which
+ * waits for updates but not for rebuilds, and callers go on with the previous value while it is rebuilt for its age.
+ */
+public class DomainSnapshot<T> {
+
+    private static final long MAX_AGE = TimeUnit.MINUTES.toMillis(5);
+
+    private static ExecutorService executor;
+
+    public static synchronized void start() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("domain-snapshot-%d")
+                    .setDaemon(true).build());
+        }
+    }
+
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private static class Built<T> {
+
+        private final long built = System.currentTimeMillis();
+
+        private final long generation;
+
+        private final T value;
+
+        private Built(long generation, T value) {
+            this.generation = generation;
+            this.value = value;
+        }
+    }
+
+    private final Supplier<T> builder;
+
+    private final BiPredicate<T, String> updater;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> unresolved = new HashSet<>();
+
+    private final ReentrantLock building = new ReentrantLock();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile Built<T> current;
+
+    public DomainSnapshot(Supplier<T> builder) {
+        this(builder, null);
+    }
+
+    /**
+     * @param updater applies the changes of the object with the given external id to the value in place, returning false if
+     *            the object no longer exists, in which case it is kept as changed until the value is rebuilt
+     */
+    public DomainSnapshot(Supplier<T> builder, BiPredicate<T, String> updater) {
+        this.builder = builder;
+        this.updater = updater;
+    }
+
+    /**
+     * Rebuilds the value before its next use.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Updates the value for the object with the given external id before its next use.
+     */
+    public void changed(String externalId) {
+        changed.add(externalId);
+    }
+
+    /**
+     * The current value, for values that are not updated in place.
+     */
+    public T get() {
+        return refresh().value;
+    }
+
+    public <R> R read(Function<T, R> reader) {
+        final T value = refresh().value;
+        lock.readLock().lock();
+        try {
+            return reader.apply(value);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean isCurrent(Built<T> built) {
+        return built != null && built.generation == generation.get() && (updater == null || changed.isEmpty());
+    }
+
+    private boolean isExpired(Built<T> built) {
+        return System.currentTimeMillis() - built.built > MAX_AGE;
+    }
+
+    private Built<T> refresh() {
+        Built<T> built = current;
+        if (isCurrent(built) && !isExpired(built)) {
+            return built;
+        }
+        if (isCurrent(built)) {
+            if (!building.tryLock()) {
+                return built;
+            }
+        } else {
+            building.lock();
+        }
+        try {
+            built = current;
+            if (built == null || built.generation != generation.get() || isExpired(built)) {
+                final long generation = this.generation.get();
+                final List<String> ids = new ArrayList<>(changed);
+                built = new Built<>(generation, inOwnTransaction(builder));
+                changed.removeAll(ids);
+                lock.writeLock().lock();
+                try {
+                    unresolved.clear();
+                    current = built;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            if (updater != null && !changed.isEmpty()) {
+                update(built.value);
+            }
+            return built;
+        } finally {
+            building.unlock();
+        }
+    }
+
+    private void update(T value) {
+        lock.writeLock().lock();
+        try {
+            final List<String> ids = new ArrayList<>(changed);
+            changed.removeAll(ids);
+            ids.addAll(unresolved);
+            unresolved.clear();
+            try {
+                unresolved.addAll(inOwnTransaction(() -> ids.stream().distinct().filter(id -> !updater.test(value, id))
+                        .collect(Collectors.toList())));
+            } catch (RuntimeException e) {
+                // the value may be partly updated, so it is rebuilt, and the changes are kept for the value that replaces it
+                changed.addAll(ids);
+                invalidate();
+                throw e;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Computes the given value in a read transaction started now, on another thread, so that it sees every change committed so
+     * far even if the caller is in a transaction that started earlier.
+     */
+    static <V> V inOwnTransaction(Supplier<V> supplier) {
+        final ExecutorService executor = DomainSnapshot.executor;
+        if (executor == null) {
+            return readInTransaction(supplier);
+        }
+        try {
+            return executor.submit(() -> readInTransaction(supplier)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a domain snapshot", e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    @Atomic(mode = TxMode.READ)
+    private static <V> V readInTransaction(Supplier<V> supplier) {
+        return supplier.get();
+    }
+
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.UnavailableException;
+
+import org.fenixedu.bennu.FenixEduSpaceConfiguration;
+import org.fenixedu.commons.i18n.I18N;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ist.fenixframework.Atomic;
+import pt.ist.fenixframework.Atomic.TxMode;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonObject;
+
+/**
+ * Runs exports in the background, so large ones do not hold a request thread until they are done.
+ *
+ * Each export runs in a single read transaction, so it sees a consistent snapshot of the spaces, in the locale of the request
+ * that submitted it, and writes its result to a temporary file that its owner can download until it expires.
+ */
+public class ExportJobs {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportJobs.class);
+
+    private static final int RETRY_AFTER_SECONDS = 30;
+
+    public static enum State {
+        QUEUED, RUNNING, DONE, FAILED;
+    }
+
+    public static interface Export {
+        void write(ExportJob job, OutputStream outputStream) throws IOException;
+    }
+
+    public static class ExportJob {
+
+        private final String id = UUID.randomUUID().toString();
+
+        private final String owner;
+
+        private final String filename;
+
+        private final String contentType;
+
+        private final Locale locale = I18N.getLocale();
+
+        private final long created = System.currentTimeMillis();
+
+        private final AtomicInteger processed = new AtomicInteger();
+
+        private volatile int total = -1;
+
+        private volatile State state = State.QUEUED;
+
+        private volatile long finished;
+
+        private volatile File file;
+
+        private ExportJob(String owner, String filename, String contentType) {
+            this.owner = owner;
+            this.filename = filename;
+            this.contentType = contentType;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public int getProcessed() {
+            return processed.get();
+        }
+
+        /**
+         * @return the number of items to export, or -1 if it is not known
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        public void setTotal(int total) {
+            this.total = total;
+        }
+
+        public void progress() {
+            processed.incrementAndGet();
+        }
+
+        /**
+         * @return the exported file, present once the export is done
+         */
+        public Optional<File> getFile() {
+            return state == State.DONE ? Optional.ofNullable(file) : Optional.empty();
+        }
+
+        private boolean isExpired(long now, long expiry) {
+            return (state == State.DONE || state == State.FAILED) && now - finished > expiry;
+        }
+
+        public JsonObject toJson() {
+            final JsonObject json = new JsonObject();
+            json.addProperty("id", id);
+            json.addProperty("state", state.name());
+            json.addProperty("processed", processed.get());
+            json.addProperty("total", total);
+            json.addProperty("filename", filename);
+            return json;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, ExportJob> jobs = new ConcurrentHashMap<>();
+
+    private static ThreadPoolExecutor executor;
+
+    public static synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        final int threads = FenixEduSpaceConfiguration.getConfiguration().exportThreads();
+        final int queueSize = FenixEduSpaceConfiguration.getConfiguration().exportQueueSize();
+        executor =
+                new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                        new ThreadFactoryBuilder().setNameFormat("spaces-export-%d").setDaemon(true).build());
+    }
+
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        for (ExportJob job : jobs.values()) {
+            discard(job);
+        }
+    }
+
+    /**
+     * Queues an export for the given user.
+     *
+     * @throws UnavailableException if too many exports are already waiting
+     */
+    public static ExportJob submit(String owner, String filename, String contentType, Export export)
+            throws UnavailableException {
+        purgeExpired();
+        final ThreadPoolExecutor executor = ExportJobs.executor;
+        if (executor == null) {
+            throw new UnavailableException("Exports are not running", RETRY_AFTER_SECONDS);
+        }
+        final ExportJob job = new ExportJob(owner, filename, contentType);
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(() -> run(job, export));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            throw new UnavailableException("Too many exports waiting", RETRY_AFTER_SECONDS);
+        }
+        return job;
+    }
+
+    /**
+     * @return the job with the given id, if it was submitted by the given user and has not expired
+     */
+    public static Optional<ExportJob> get(String id, String owner) {
+        purgeExpired();
+        final ExportJob job = jobs.get(id);
+        return job != null && job.owner.equals(owner) ? Optional.of(job) : Optional.empty();
+    }
+
+    private static void run(ExportJob job, Export export) {
+        job.state = State.RUNNING;
+        final Locale locale = I18N.getLocale();
+        I18N.setLocale(job.locale);
+        File file = null;
+        try {
+            file = File.createTempFile("spaces-export-", null);
+            try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file))) {
+                runInSnapshot(job, export, outputStream);
+            }
+            job.file = file;
+            // finished is set before the state, so a job that just finished is never seen as finished long ago
+            job.finished = System.currentTimeMillis();
+            job.state = State.DONE;
+        } catch (Exception e) {
+            logger.error("Could not export " + job.getFilename(), e);
+            if (file != null) {
+                file.delete();
+            }
+            job.finished = System.currentTimeMillis();
+            job.state = State.FAILED;
+        } finally {
+            I18N.setLocale(locale);
+        }
+    }
+
+    @Atomic(mode = TxMode.READ)
+    static void runInSnapshot(ExportJob job, Export export, OutputStream outputStream) throws IOException {
+        export.write(job, outputStream);
+    }
+
+    private static void purgeExpired() {
+        final long now = System.currentTimeMillis();
+        final long expiry = TimeUnit.MINUTES.toMillis(FenixEduSpaceConfiguration.getConfiguration().exportExpiryInMinutes());
+        for (ExportJob job : jobs.values()) {
+            if (job.isExpired(now, expiry)) {
+                discard(job);
+            }
+        }
+    }
+
+    private static void discard(ExportJob job) {
+        jobs.remove(job.getId());
+        if (job.file != null) {
+            job.file.delete();
+        }
+    }
+
+}
@@ -2,23 +2,29 @@ package org.fenixedu.spaces.services;
 
 import static org.fenixedu.bennu.FenixEduSpaceConfiguration.BUNDLE;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import org.fenixedu.bennu.core.domain.User;
 import org.fenixedu.bennu.core.i18n.BundleUtil;
-import org.fenixedu.commons.i18n.LocalizedString;
 import org.fenixedu.commons.spreadsheet.Spreadsheet;
 import org.fenixedu.commons.spreadsheet.Spreadsheet.Row;
 import org.fenixedu.spaces.domain.Space;
-import org.fenixedu.spaces.domain.SpaceClassification;
+import org.fenixedu.spaces.domain.occupation.Occupation;
 import org.fenixedu.spaces.domain.occupation.SharedOccupation;
+import org.fenixedu.spaces.domain.occupation.config.OccupationConfig;
+import org.fenixedu.spaces.services.MetadataColumnCatalogue.Column;
+import org.fenixedu.spaces.ui.InformationBean;
+import org.joda.time.DateTime;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.common.base.Strings;
 
 public class ExportSpace {
 
@@ -31,76 +37,189 @@ public class ExportSpace {
         headers.add(BundleUtil.getString(BUNDLE, "export.excel.classification"));
         headers.add(BundleUtil.getString(BUNDLE, "export.excel.area"));
         headers.add(BundleUtil.getString(BUNDLE, "export.excel.occupants"));
-        HashMap<String, LocalizedString> showKeys = new HashMap<String, LocalizedString>();
-        for (SpaceClassification spaceClassification : SpaceClassification.all()) {
-            for (JsonElement je : spaceClassification.getMetadataSpec().getAsJsonArray()) {
-                JsonObject attribute = je.getAsJsonObject();
-                String name = attribute.get("name").getAsString();
-                LocalizedString description = LocalizedString.fromJson(attribute.get("description"));
-                if (showKeys.putIfAbsent(name, description) == null) {
-                    metaKeys.add(name);
-                }
-            }
-        }
-
-        for (String header : metaKeys) {
-            headers.add(showKeys.get(header).getContent());
+        for (Column column : MetadataColumnCatalogue.getColumns()) {
+            metaKeys.add(column.getName());
+            headers.add(column.getDescription().getContent());
         }
         return headers;
     }
 
-    private static void exportToXls(Space space, OutputStream outputStream) throws IOException {
+    private interface RowWriter {
+        void write(List<String> cells) throws IOException;
+    }
+
+    private static void exportToXls(Space space, OutputStream outputStream, Runnable onRow) throws IOException {
         List<String> metaKeys = new ArrayList<String>();
         final List<Object> headers = getHeaders(metaKeys);
         final Spreadsheet spreadsheet = new Spreadsheet("GestãoDeEspaços", headers);
-        fillSpaceInfo(space, spreadsheet, metaKeys);
-        fillSpreadSheet(space, spreadsheet, metaKeys);
+        export(space, metaKeys, cells -> {
+            final Row row = spreadsheet.addRow();
+            for (String cell : cells) {
+                row.setCell(cell);
+            }
+            onRow.run();
+        });
         spreadsheet.exportToXLSSheet(outputStream);
     }
 
+    private static void exportToCsv(Space space, OutputStream outputStream, Runnable onRow) throws IOException {
+        List<String> metaKeys = new ArrayList<String>();
+        final List<Object> headers = getHeaders(metaKeys);
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        // byte order mark, so spreadsheet applications read the file as UTF-8
+        writer.write('\uFEFF');
+        writeCsvRow(writer,
+                headers.stream().map(header -> header == null ? "" : header.toString()).collect(Collectors.toList()));
+        writer.flush();
+        export(space, metaKeys, cells -> {
+            writeCsvRow(writer, cells);
+            onRow.run();
+        });
+        writer.flush();
+    }
+
+    private static void writeCsvRow(Writer writer, List<String> cells) throws IOException {
+        for (int i = 0; i < cells.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            final String cell = cells.get(i);
+            if (cell.indexOf(',') >= 0 || cell.indexOf('"') >= 0 || cell.indexOf('\n') >= 0 || cell.indexOf('\r') >= 0) {
+                writer.write('"');
+                writer.write(cell.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(cell);
+            }
+        }
+        writer.write("\r\n");
+    }
+
     private static String StringPath(List<Space> path) {
         return path.stream().map(a -> a.getName()).collect(Collectors.joining(" > "));
     }
 
-    private static void fillSpaceInfo(Space space, final Spreadsheet spreadsheet, List<String> metaKeys) {
-        final Row row = spreadsheet.addRow();
-
-        row.setCell((space.getParent() != null) ? StringPath(space.getParent().getPath()) : "--");
-        row.setCell(space.getName());
-        row.setCell(space.bean().getIdentification() != null ? space.bean().getIdentification() : "--");
-        row.setCell(space.bean().getBlueprintNumber() != null ? space.bean().getBlueprintNumber() : "--");
-        row.setCell(space.bean().getClassification() != null ? space.bean().getClassification().getName().getContent() : "--");
-        row.setCell(space.bean().getArea() != null ? space.bean().getArea().toString() : "--");
-        row.setCell(getOccupantsString(space));
-        for (String field : metaKeys) {
-            row.setCell((space.getMetadata(field).orElse("--")).toString());
+    private static class Occupant {
+
+        private final String name;
+
+        private final OccupationConfig config;
+
+        private Occupant(User user, OccupationConfig config) {
+            this.name = user.getProfile().getDisplayName() + " (" + user.getUsername() + ")";
+            this.config = config;
         }
-    }
 
-    private static String getOccupantsString(Space space) {
-        return space.getOccupationSet().stream().filter(occ -> SharedOccupation.class.isInstance(occ))
-                .map(occ -> (SharedOccupation) occ).filter(so -> so.isActive()).map(so -> {
-                    return so.getUser().getProfile().getDisplayName() + " (" + so.getUser().getUsername() + ")";
-                }).collect(Collectors.joining("; "));
+        private boolean isActive(DateTime when) {
+            return config.getIntervals().stream().anyMatch(interval -> interval.contains(when));
+        }
     }
 
-    private static void fillSpreadSheet(Space space, final Spreadsheet spreadsheet, List<String> metaKeys) {
-        for (Space subSpace : space.getChildren()) {
-            if (subSpace.isActive()) {
-                fillSpaceInfo(subSpace, spreadsheet, metaKeys);
+    /**
+     * What the row of a space is computed from, read in the transaction of its subtree.
+     */
+    private static class SpaceData {
+
+        private final String name;
+
+        private final List<String> cells = new ArrayList<>();
+
+        private final List<String> metadata = new ArrayList<>();
+
+        private final List<Occupant> occupants = new ArrayList<>();
+
+        private SpaceData(Space space, List<String> metaKeys) {
+            final InformationBean bean = space.bean();
+            this.name = Strings.nullToEmpty(bean.getName());
+            cells.add(name);
+            cells.add(bean.getIdentification() != null ? bean.getIdentification() : "--");
+            cells.add(bean.getBlueprintNumber() != null ? bean.getBlueprintNumber() : "--");
+            cells.add(bean.getClassification() != null ? bean.getClassification().getName().getContent() : "--");
+            cells.add(bean.getArea() != null ? bean.getArea().toString() : "--");
+            for (String field : metaKeys) {
+                metadata.add(space.<Object> getMetadata(field).map(Object::toString).orElse("--"));
             }
-            if (subSpace.getChildren().size() != 0) {
-                fillSpreadSheet(subSpace, spreadsheet, metaKeys);
+            for (Occupation occupation : space.getOccupationSet()) {
+                if (occupation instanceof SharedOccupation) {
+                    occupants.add(new Occupant(((SharedOccupation) occupation).getUser(), occupation.getConfig()));
+                }
             }
         }
     }
 
+    private static class ExportRow {
+
+        private final String childrenPath;
+
+        private final List<String> cells;
+
+        private ExportRow(String childrenPath, List<String> cells) {
+            this.childrenPath = childrenPath;
+            this.cells = cells;
+        }
+    }
+
+    /**
+     * The subtree of each child is read in parallel, in a read transaction of its own, and the rows, which expand the intervals
+     * of the occupations of each space to find its occupants, are computed from it in parallel and written in tree order.
+     */
+    private static void export(Space space, List<String> metaKeys, RowWriter rows) throws IOException {
+        final String parentPath = (space.getParent() != null) ? StringPath(space.getParent().getPath()) : "--";
+        final String path = StringPath(space.getPath());
+        SpaceTreeTraversal.<SpaceData, ExportRow> traverse(space, subSpace -> new SpaceData(subSpace, metaKeys), (data,
+                parent) -> {
+            if (parent == null) {
+                return new ExportRow(path, getCells(data, parentPath));
+            }
+            return new ExportRow(parent.childrenPath.isEmpty() ? data.name : parent.childrenPath + " > " + data.name, getCells(
+                    data, parent.childrenPath));
+        }, row -> rows.write(row.cells));
+    }
+
+    private static List<String> getCells(SpaceData data, String path) {
+        final List<String> cells = new ArrayList<String>(7 + data.metadata.size());
+        cells.add(path.isEmpty() ? "--" : path);
+        cells.addAll(data.cells);
+        cells.add(getOccupantsString(data.occupants));
+        cells.addAll(data.metadata);
+        return cells;
+    }
+
+    private static String getOccupantsString(List<Occupant> occupants) {
+        final DateTime now = new DateTime();
+        return occupants.stream().filter(occupant -> occupant.isActive(now)).map(occupant -> occupant.name)
+                .collect(Collectors.joining("; "));
+    }
+
     public static void run(Space space, OutputStream outputStream) {
         try {
-            exportToXls(space, outputStream);
+            exportToXls(space, outputStream, () -> {
+            });
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
         }
     }
+
+    /**
+     * Number of rows exported for the given space, one for itself and one for each active space below it.
+     */
+    public static int count(Space space) {
+        int count = 1;
+        for (Space child : space.getChildren()) {
+            count += count(child);
+        }
+        return count;
+    }
+
+    /**
+     * Exports the space subtree in the given format, "csv" or "xls", calling onRow after each row is written.
+     */
+    public static void run(Space space, String format, OutputStream outputStream, Runnable onRow) throws IOException {
+        if ("csv".equalsIgnoreCase(format)) {
+            exportToCsv(space, outputStream, onRow);
+        } else {
+            exportToXls(space, outputStream, onRow);
+        }
+    }
 }
@@ -0,0 +1,98 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.fenixedu.bennu.io.domain.GenericFile;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Copies the content of stored files to an output stream without holding the whole file in memory.
+ *
+ * Files kept in the file system are handed to {@link FileChannel#transferTo}, writing to a channel over the output stream that
+ * allocates its own small buffer per call. Other storages are copied through a small pool of reusable buffers.
+ */
+public class FileStreamer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(32);
+
+    /**
+     * Writes length bytes of the file, starting at offset, to the given stream.
+     *
+     * @throws EOFException if the file ends before length bytes were written, so a response whose length was already sent
+     *             is aborted instead of being silently truncated
+     */
+    public static void copy(GenericFile file, long offset, long length, OutputStream outputStream) throws IOException {
+        try (InputStream inputStream = file.getStream()) {
+            if (inputStream instanceof FileInputStream) {
+                transfer(((FileInputStream) inputStream).getChannel(), offset, length, outputStream);
+            } else {
+                ByteStreams.skipFully(inputStream, offset);
+                copy(inputStream, length, outputStream);
+            }
+        }
+    }
+
+    private static void transfer(FileChannel channel, long offset, long length, OutputStream outputStream) throws IOException {
+        final WritableByteChannel target = Channels.newChannel(outputStream);
+        long position = offset;
+        final long end = offset + length;
+        while (position < end) {
+            final long transferred = channel.transferTo(position, end - position, target);
+            if (transferred <= 0) {
+                throw new EOFException("File ended " + (end - position) + " bytes before the requested range");
+            }
+            position += transferred;
+        }
+    }
+
+    private static void copy(InputStream inputStream, long length, OutputStream outputStream) throws IOException {
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        try {
+            long remaining = length;
+            while (remaining > 0) {
+                final int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("File ended " + remaining + " bytes before the requested range");
+                }
+                outputStream.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } finally {
+            buffers.offer(buffer);
+        }
+    }
+
+}
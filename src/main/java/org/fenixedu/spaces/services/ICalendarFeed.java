@@ -0,0 +1,457 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import org.fenixedu.bennu.core.domain.User;
+import org.fenixedu.bennu.core.signals.DomainObjectEvent;
+import org.fenixedu.bennu.core.signals.Signal;
+import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.domain.occupation.Occupation;
+import org.fenixedu.spaces.domain.occupation.SharedOccupation;
+import org.fenixedu.spaces.domain.occupation.config.ExplicitConfigWithSettings;
+import org.fenixedu.spaces.domain.occupation.config.ExplicitConfigWithSettings.Frequency;
+import org.fenixedu.spaces.domain.occupation.config.ExplicitConfigWithSettings.MonthlyType;
+import org.fenixedu.spaces.domain.occupation.config.OccupationConfig;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.joda.time.LocalTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import pt.ist.fenixframework.FenixFramework;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * iCalendar (RFC 5545) subscription feeds of the occupations of a space and of the spaces shared with a user.
+ *
+ * An occupation whose intervals are exactly the ones its repetition settings produce is written as a single event with a
+ * recurrence rule, any other as one event per interval. Feeds are kept until one of their occupations changes, or at most five
+ * minutes, since the intervals of some occupations are computed elsewhere.
+ */
+public class ICalendarFeed {
+
+    private static final long MAX_AGE = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String[] WEEKDAYS = new String[] { "MO", "TU", "WE", "TH", "FR", "SA", "SU" };
+
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormat.forPattern("yyyyMMdd'T'HHmmss");
+
+    private static final DateTimeFormatter DATE = DateTimeFormat.forPattern("yyyyMMdd");
+
+    private static final String STAMP = "\u0000";
+
+    public static class Feed {
+
+        private final String content;
+
+        private final String etag;
+
+        private final Set<String> occupations;
+
+        private Feed(String content, String etag, Set<String> occupations) {
+            this.content = content;
+            this.etag = etag;
+            this.occupations = occupations;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+
+    /**
+     * The keys of the cached feeds, by the occupations they were rendered from, kept in step with the cache.
+     */
+    private static final ConcurrentHashMap<String, Set<String>> feedsByOccupation = new ConcurrentHashMap<>();
+
+    private static final Cache<String, Feed> feeds = CacheBuilder.newBuilder().maximumSize(5000)
+            .expireAfterWrite(MAX_AGE, TimeUnit.MILLISECONDS)
+            .removalListener((RemovalNotification<String, Feed> removal) -> forget(removal.getKey(), removal.getValue()))
+            .build();
+
+    private static final Set<String> changed = ConcurrentHashMap.newKeySet();
+
+    private static final AtomicLong generation = new AtomicLong();
+
+    static {
+        Signal.registerWithoutTransaction(Occupation.OCCUPATION_CHANGED_SIGNAL, (DomainObjectEvent<Occupation> event) -> {
+            changed.add(event.getInstance().getExternalId());
+            generation.incrementAndGet();
+        });
+    }
+
+    private static void forget(String key, Feed removed) {
+        for (String occupationId : removed.occupations) {
+            feedsByOccupation.computeIfPresent(occupationId, (id, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+    }
+
+    public static Feed forSpace(Space space) {
+        return get("space:" + space.getExternalId(), space.getName(), () -> space.getOccupationSet());
+    }
+
+    public static Feed forOccupant(User user) {
+        return get("user:" + user.getExternalId(), user.getProfile().getDisplayName(), () -> user.getSharedOccupationSet());
+    }
+
+    /**
+     * Feeds are rendered in a transaction of their own, since the transaction of the caller may have started before the changes
+     * that were just dropped were committed. Different feeds are rendered concurrently.
+     */
+    private static Feed get(String key, String name, Supplier<Collection<? extends Occupation>> occupations) {
+        final long before = generation.get();
+        if (!changed.isEmpty()) {
+            final List<String> occupationIds = new ArrayList<>(changed);
+            changed.removeAll(occupationIds);
+            final Set<String> keys = new HashSet<>();
+            for (String occupationId : occupationIds) {
+                final Set<String> cached = feedsByOccupation.remove(occupationId);
+                if (cached != null) {
+                    keys.addAll(cached);
+                }
+            }
+            keys.addAll(DomainSnapshot.inOwnTransaction(() -> {
+                final Set<String> changedKeys = new HashSet<>();
+                for (String occupationId : occupationIds) {
+                    final Occupation occupation = FenixFramework.getDomainObject(occupationId);
+                    if (FenixFramework.isDomainObjectValid(occupation)) {
+                        occupation.getSpaceSet().forEach(space -> changedKeys.add("space:" + space.getExternalId()));
+                        if (occupation instanceof SharedOccupation && ((SharedOccupation) occupation).getUser() != null) {
+                            changedKeys.add("user:" + ((SharedOccupation) occupation).getUser().getExternalId());
+                        }
+                    }
+                }
+                return changedKeys;
+            }));
+            feeds.invalidateAll(keys);
+        }
+
+        final boolean[] rendered = new boolean[1];
+        final Feed current;
+        try {
+            current = feeds.get(key, () -> {
+                rendered[0] = true;
+                final Feed feed = DomainSnapshot.inOwnTransaction(() -> render(name, occupations.get()));
+                for (String occupationId : feed.occupations) {
+                    feedsByOccupation.compute(occupationId, (id, feedKeys) -> {
+                        final Set<String> ids = feedKeys == null ? new HashSet<>() : feedKeys;
+                        ids.add(key);
+                        return ids;
+                    });
+                }
+                return feed;
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        if (rendered[0] && generation.get() != before) {
+            // an occupation changed while rendering, possibly after the transaction used to render had started
+            feeds.invalidate(key);
+        }
+        return current;
+    }
+
+    private static Feed render(String name, Collection<? extends Occupation> occupations) {
+        final DateTimeZone zone = DateTimeZone.getDefault();
+        final StringBuilder events = new StringBuilder();
+        final Set<String> occupationIds = new HashSet<>();
+        long from = Long.MAX_VALUE, to = Long.MIN_VALUE;
+
+        for (Occupation occupation : occupations) {
+            occupationIds.add(occupation.getExternalId());
+            final List<Interval> intervals =
+                    occupation.getIntervals().stream().sorted((a, b) -> Long.compare(a.getStartMillis(), b.getStartMillis()))
+                            .collect(Collectors.toList());
+            if (intervals.isEmpty()) {
+                continue;
+            }
+            for (Interval interval : intervals) {
+                from = Math.min(from, interval.getStartMillis());
+                to = Math.max(to, interval.getEndMillis());
+            }
+
+            final String location =
+                    occupation.getSpaces().stream().map(space -> space.getName()).filter(Objects::nonNull).sorted()
+                            .collect(Collectors.joining(", "));
+            final String rule = getRecurrenceRule(occupation.getConfig(), intervals, zone);
+            if (rule != null) {
+                writeEvent(events, occupation, occupation.getExternalId(), intervals.get(0), rule, location, zone);
+            } else {
+                for (int i = 0; i < intervals.size(); i++) {
+                    writeEvent(events, occupation, occupation.getExternalId() + "-" + i, intervals.get(i), null,
+                            location, zone);
+                }
+            }
+        }
+
+        final StringBuilder content = new StringBuilder();
+        line(content, "BEGIN:VCALENDAR");
+        line(content, "VERSION:2.0");
+        line(content, "PRODID:-//FenixEdu//Spaces//EN");
+        line(content, "CALSCALE:GREGORIAN");
+        if (name != null) {
+            line(content, "X-WR-CALNAME:" + text(name));
+        }
+        if (from <= to) {
+            writeTimeZone(content, zone, from - TimeUnit.DAYS.toMillis(1), to);
+        }
+        content.append(events);
+        line(content, "END:VCALENDAR");
+        // the entity tag ignores when the feed was rendered, so clients only download it again when an event changes
+        final String template = content.toString();
+        final String stamp = DATE_TIME.print(new DateTime(DateTimeZone.UTC)) + "Z";
+        return new Feed(template.replace(STAMP, stamp), Hashing.murmur3_128().hashString(template, StandardCharsets.UTF_8)
+                .toString(), occupationIds);
+    }
+
+    private static void writeEvent(StringBuilder out, Occupation occupation, String uid, Interval interval, String rule,
+            String location, DateTimeZone zone) {
+        line(out, "BEGIN:VEVENT");
+        line(out, "UID:" + uid + "@fenixedu-spaces");
+        line(out, "DTSTAMP:" + STAMP);
+        if (isAllDay(occupation)) {
+            final LocalDate start = interval.getStart().withZone(zone).toLocalDate();
+            final DateTime end = interval.getEnd().withZone(zone);
+            LocalDate endDate = end.toLocalDate();
+            if (!end.toLocalTime().equals(LocalTime.MIDNIGHT) || !endDate.isAfter(start)) {
+                endDate = endDate.plusDays(1);
+            }
+            line(out, "DTSTART;VALUE=DATE:" + DATE.print(start));
+            line(out, "DTEND;VALUE=DATE:" + DATE.print(endDate));
+        } else {
+            line(out, "DTSTART;TZID=" + zone.getID() + ":" + DATE_TIME.print(interval.getStart().withZone(zone)));
+            line(out, "DTEND;TZID=" + zone.getID() + ":" + DATE_TIME.print(interval.getEnd().withZone(zone)));
+        }
+        if (rule != null) {
+            line(out, "RRULE:" + rule);
+        }
+        if (occupation.getSubject() != null) {
+            line(out, "SUMMARY:" + text(occupation.getSubject()));
+        }
+        if (!location.isEmpty()) {
+            line(out, "LOCATION:" + text(location));
+        }
+        line(out, "END:VEVENT");
+    }
+
+    private static boolean isAllDay(Occupation occupation) {
+        final OccupationConfig config = occupation.getConfig();
+        return occupation instanceof SharedOccupation || config instanceof ExplicitConfigWithSettings
+                && Boolean.TRUE.equals(((ExplicitConfigWithSettings) config).getAllDay());
+    }
+
+    /**
+     * The recurrence rule described by the repetition settings of the given configuration, if repeating the first of the given
+     * intervals by that rule yields exactly the given intervals, or null otherwise.
+     */
+    static String getRecurrenceRule(OccupationConfig config, List<Interval> intervals, DateTimeZone zone) {
+        if (!(config instanceof ExplicitConfigWithSettings) || intervals.size() < 2) {
+            return null;
+        }
+        final ExplicitConfigWithSettings settings = (ExplicitConfigWithSettings) config;
+        final Frequency frequency = settings.getFrequency();
+        final Integer every = settings.getRepeatsevery();
+        if (frequency == null || frequency == Frequency.NEVER || every == null || every < 1) {
+            return null;
+        }
+
+        final LocalDateTime first = intervals.get(0).getStart().withZone(zone).toLocalDateTime();
+        final LocalDate start = first.toLocalDate();
+        final StringBuilder rule = new StringBuilder("FREQ=").append(frequency.name()).append(";INTERVAL=").append(every);
+        final List<Integer> weekdays = new ArrayList<>();
+        switch (frequency) {
+        case WEEKLY:
+            if (settings.getWeekdays() == null) {
+                return null;
+            }
+            settings.getWeekdays().stream().distinct().sorted().forEach(weekdays::add);
+            if (weekdays.isEmpty() || weekdays.get(0) < 1 || weekdays.get(weekdays.size() - 1) > 7) {
+                return null;
+            }
+            rule.append(";BYDAY=").append(weekdays.stream().map(day -> WEEKDAYS[day - 1]).collect(Collectors.joining(",")));
+            rule.append(";WKST=MO");
+            break;
+        case MONTHLY:
+            if (settings.getMonthlyType() == MonthlyType.DAY_OF_WEEK) {
+                rule.append(";BYDAY=").append(nth(start)).append(WEEKDAYS[start.getDayOfWeek() - 1]);
+            } else {
+                rule.append(";BYMONTHDAY=").append(start.getDayOfMonth());
+            }
+            break;
+        default:
+            break;
+        }
+        rule.append(";COUNT=").append(intervals.size());
+
+        final List<LocalDate> dates = expand(settings, frequency, every, weekdays, start, intervals.size());
+        if (dates.size() != intervals.size()) {
+            return null;
+        }
+        final long duration = intervals.get(0).toDurationMillis();
+        for (int i = 0; i < intervals.size(); i++) {
+            final Interval interval = intervals.get(i);
+            if (!interval.getStart().withZone(zone).toLocalDateTime().equals(dates.get(i).toLocalDateTime(first.toLocalTime()))
+                    || interval.toDurationMillis() != duration) {
+                return null;
+            }
+        }
+        return rule.toString();
+    }
+
+    private static int nth(LocalDate date) {
+        return (date.getDayOfMonth() - 1) / 7 + 1;
+    }
+
+    /**
+     * The first dates produced by the given repetition settings from the given start, following the rules of RFC 5545, that
+     * skip dates that do not exist in a period instead of moving them.
+     */
+    static List<LocalDate> expand(ExplicitConfigWithSettings settings, Frequency frequency, int every,
+            List<Integer> weekdays, LocalDate start, int count) {
+        final List<LocalDate> dates = new ArrayList<>();
+        final int maxPeriods = count * 12 + 12;
+        for (int period = 0; period < maxPeriods && dates.size() < count; period++) {
+            switch (frequency) {
+            case DAILY:
+                dates.add(start.plusDays(period * every));
+                break;
+            case WEEKLY:
+                final LocalDate week = start.withDayOfWeek(1).plusWeeks(period * every);
+                for (int day : weekdays) {
+                    final LocalDate date = week.plusDays(day - 1);
+                    if (!date.isBefore(start) && dates.size() < count) {
+                        dates.add(date);
+                    }
+                }
+                break;
+            case MONTHLY:
+                final LocalDate month = start.withDayOfMonth(1).plusMonths(period * every);
+                if (settings.getMonthlyType() == MonthlyType.DAY_OF_WEEK) {
+                    final LocalDate date =
+                            month.plusDays((start.getDayOfWeek() - month.getDayOfWeek() + 7) % 7).plusWeeks(nth(start) - 1);
+                    if (date.getMonthOfYear() == month.getMonthOfYear()) {
+                        dates.add(date);
+                    }
+                } else if (start.getDayOfMonth() <= month.dayOfMonth().getMaximumValue()) {
+                    dates.add(month.withDayOfMonth(start.getDayOfMonth()));
+                }
+                break;
+            case YEARLY:
+                final LocalDate anniversary = start.plusYears(period * every);
+                if (anniversary.getDayOfMonth() == start.getDayOfMonth()) {
+                    dates.add(anniversary);
+                }
+                break;
+            default:
+                return dates;
+            }
+        }
+        return dates;
+    }
+
+    /**
+     * Describes the offsets of the given zone in the given period by listing each of its transitions, so the feed does not
+     * depend on the time zone database of the client.
+     */
+    private static void writeTimeZone(StringBuilder out, DateTimeZone zone, long from, long to) {
+        line(out, "BEGIN:VTIMEZONE");
+        line(out, "TZID:" + zone.getID());
+        int offset = zone.getOffset(from);
+        writeObservance(out, zone.isStandardOffset(from), new LocalDateTime(from, zone), offset, offset);
+        long instant = from;
+        for (long transition = zone.nextTransition(instant); transition > instant && transition <= to; transition =
+                zone.nextTransition(instant)) {
+            final int next = zone.getOffset(transition);
+            writeObservance(out, zone.isStandardOffset(transition),
+                    new LocalDateTime(transition, DateTimeZone.forOffsetMillis(offset)), offset, next);
+            offset = next;
+            instant = transition;
+        }
+        line(out, "END:VTIMEZONE");
+    }
+
+    private static void writeObservance(StringBuilder out, boolean standard, LocalDateTime start, int offsetFrom, int offsetTo) {
+        final String component = standard ? "STANDARD" : "DAYLIGHT";
+        line(out, "BEGIN:" + component);
+        line(out, "DTSTART:" + DATE_TIME.print(start));
+        line(out, "TZOFFSETFROM:" + offset(offsetFrom));
+        line(out, "TZOFFSETTO:" + offset(offsetTo));
+        line(out, "END:" + component);
+    }
+
+    private static String offset(int millis) {
+        final int minutes = Math.abs(millis) / 60000;
+        return String.format("%s%02d%02d", millis < 0 ? "-" : "+", minutes / 60, minutes % 60);
+    }
+
+    private static String text(String value) {
+        return value.replace("\\", "\\\\").replace(";", "\\;").replace(",", "\\,").replace("\r\n", "\\n")
+                .replace("\n", "\\n").replace("\r", "");
+    }
+
+    /**
+     * Appends a content line, folded so that no line is longer than 75 octets.
+     */
+    private static void line(StringBuilder out, String content) {
+        int octets = 0;
+        for (int i = 0; i < content.length();) {
+            final int codePoint = content.codePointAt(i);
+            final int length = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8).length;
+            if (octets + length > 75) {
+                out.append("\r\n ");
+                octets = 1;
+            }
+            out.appendCodePoint(codePoint);
+            octets += length;
+            i += Character.charCount(codePoint);
+        }
+        out.append("\r\n");
+    }
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.fenixedu.bennu.core.signals.Signal;
+import org.fenixedu.commons.i18n.LocalizedString;
+import org.fenixedu.spaces.domain.SpaceClassification;
+
+import pt.ist.fenixframework.FenixFramework;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * The classifications ordered by absolute code, and the union of their metadata fields, which are the metadata columns of
+ * space exports.
+ *
+ * The catalogue is rebuilt after any classification changes its metadata spec, code or parent. Its version changes with every
+ * rebuild.
+ */
+public class MetadataColumnCatalogue {
+
+    private static final AtomicLong versions = new AtomicLong();
+
+    public static class Column {
+
+        private final String name;
+
+        private final LocalizedString description;
+
+        private Column(String name, LocalizedString description) {
+            this.name = name;
+            this.description = description;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public LocalizedString getDescription() {
+            return description;
+        }
+    }
+
+    private static class Snapshot {
+
+        private final long version = versions.incrementAndGet();
+
+        private final List<String> classifications;
+
+        private final List<Column> columns;
+
+        private Snapshot(List<SpaceClassification> classifications) {
+            this.classifications =
+                    Collections.unmodifiableList(classifications.stream().map(SpaceClassification::getExternalId)
+                            .collect(Collectors.toList()));
+            final Map<String, Column> columns = new LinkedHashMap<>();
+            for (SpaceClassification classification : classifications) {
+                for (JsonElement je : classification.getMetadataSpec().getAsJsonArray()) {
+                    JsonObject attribute = je.getAsJsonObject();
+                    String name = attribute.get("name").getAsString();
+                    if (!columns.containsKey(name)) {
+                        columns.put(name, new Column(name, LocalizedString.fromJson(attribute.get("description"))));
+                    }
+                }
+            }
+            this.columns = Collections.unmodifiableList(new ArrayList<>(columns.values()));
+        }
+    }
+
+    private static final DomainSnapshot<Snapshot> snapshot = new DomainSnapshot<>(() -> new Snapshot(SpaceClassification.all()));
+
+    static {
+        Signal.registerWithoutTransaction(SpaceClassification.CLASSIFICATION_CHANGED_SIGNAL, event -> snapshot.invalidate());
+    }
+
+    /**
+     * Changes whenever the catalogue is rebuilt.
+     */
+    public static String getVersion() {
+        return String.valueOf(snapshot.get().version);
+    }
+
+    /**
+     * All the classifications, ordered by absolute code, as {@link SpaceClassification#all()}.
+     */
+    public static List<SpaceClassification> getClassifications() {
+        final List<SpaceClassification> classifications = new ArrayList<>();
+        for (String id : snapshot.get().classifications) {
+            final SpaceClassification classification = FenixFramework.getDomainObject(id);
+            if (FenixFramework.isDomainObjectValid(classification)) {
+                classifications.add(classification);
+            }
+        }
+        return classifications;
+    }
+
+    /**
+     * The metadata fields of all the classifications, each once, in the order of the first classification declaring it.
+     */
+    public static List<Column> getColumns() {
+        return snapshot.get().columns;
+    }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.fenixedu.bennu.core.domain.Bennu;
+import org.fenixedu.bennu.core.signals.DomainObjectEvent;
+import org.fenixedu.bennu.core.signals.Signal;
+import org.fenixedu.spaces.domain.occupation.Occupation;
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+
+import pt.ist.fenixframework.FenixFramework;
+
+/**
+ * Occupations created through this module, that is of the {@link Occupation} class itself, by the months between the start of
+ * their first interval and the end of their last one, so queries over a window only expand the intervals of the occupations
+ * that may intersect it.
+ *
+ * Occupations that changed are reindexed before the next query. Occupations of other classes compute their intervals elsewhere
+ * and are never indexed.
+ */
+public class OccupationCalendarIndex {
+
+    private static int month(long instant) {
+        final DateTime dateTime = new DateTime(instant);
+        return dateTime.getYear() * 12 + dateTime.getMonthOfYear() - 1;
+    }
+
+    private static class Snapshot {
+
+        private final Map<Integer, Set<String>> months = new HashMap<>();
+
+        private final Map<String, long[]> ranges = new HashMap<>();
+
+        private Snapshot() {
+            for (Occupation occupation : Bennu.getInstance().getOccupationSet()) {
+                index(occupation);
+            }
+        }
+
+        private boolean update(String occupationId) {
+            final Occupation occupation = FenixFramework.getDomainObject(occupationId);
+            if (!FenixFramework.isDomainObjectValid(occupation)) {
+                remove(occupationId);
+                return false;
+            }
+            index(occupation);
+            return true;
+        }
+
+        private void index(Occupation occupation) {
+            remove(occupation.getExternalId());
+            if (!occupation.getClass().equals(Occupation.class) || occupation.getBennu() == null) {
+                return;
+            }
+            long start = Long.MAX_VALUE, end = Long.MIN_VALUE;
+            for (Interval interval : occupation.getIntervals()) {
+                start = Math.min(start, interval.getStartMillis());
+                end = Math.max(end, interval.getEndMillis());
+            }
+            if (start > end) {
+                return;
+            }
+            ranges.put(occupation.getExternalId(), new long[] { start, end });
+            for (int month = month(start); month <= month(end); month++) {
+                months.computeIfAbsent(month, key -> new HashSet<>()).add(occupation.getExternalId());
+            }
+        }
+
+        private void remove(String occupationId) {
+            final long[] range = ranges.remove(occupationId);
+            if (range != null) {
+                for (int month = month(range[0]); month <= month(range[1]); month++) {
+                    final Set<String> occupations = months.get(month);
+                    occupations.remove(occupationId);
+                    if (occupations.isEmpty()) {
+                        months.remove(month);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final DomainSnapshot<Snapshot> snapshot = new DomainSnapshot<>(Snapshot::new, Snapshot::update);
+
+    static {
+        Signal.registerWithoutTransaction(Occupation.OCCUPATION_CHANGED_SIGNAL,
+                (DomainObjectEvent<Occupation> event) -> snapshot.changed(event.getInstance().getExternalId()));
+    }
+
+    /**
+     * Indexed occupations whose first and last intervals surround some part of the given window. Their intervals must still
+     * be checked, since the window may fall between two of them.
+     */
+    public static Set<Occupation> getCandidates(Interval window) {
+        final Set<String> occupationIds = snapshot.read(current -> {
+            final Set<String> ids = new HashSet<>();
+            for (int month = month(window.getStartMillis()); month <= month(window.getEndMillis()); month++) {
+                for (String occupationId : current.months.getOrDefault(month, new HashSet<>())) {
+                    final long[] range = current.ranges.get(occupationId);
+                    if (range[0] < window.getEndMillis() && window.getStartMillis() < range[1]) {
+                        ids.add(occupationId);
+                    }
+                }
+            }
+            return ids;
+        });
+        final Set<Occupation> occupations = new HashSet<>();
+        for (String occupationId : occupationIds) {
+            final Occupation occupation = FenixFramework.getDomainObject(occupationId);
+            if (FenixFramework.isDomainObjectValid(occupation)) {
+                occupations.add(occupation);
+            }
+        }
+        return occupations;
+    }
+
+}
@@ -0,0 +1,448 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.fenixedu.bennu.FenixEduSpaceConfiguration;
+import org.fenixedu.bennu.core.domain.User;
+import org.fenixedu.bennu.core.domain.exceptions.DomainException;
+import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.domain.SpaceDomainException;
+import org.fenixedu.spaces.domain.occupation.Occupation;
+import org.fenixedu.spaces.domain.occupation.config.ExplicitConfigWithSettings;
+import org.fenixedu.spaces.domain.occupation.config.ExplicitConfigWithSettings.Frequency;
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ist.fenixframework.Atomic;
+import pt.ist.fenixframework.Atomic.TxMode;
+import pt.ist.fenixframework.FenixFramework;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+/**
+ * Creates occupations in bulk from a schedule, read as CSV or JSON rows by {@link SpaceImport}.
+ *
+ * Each row occupies the spaces given by path, separated by semicolons, from the start date to the end date between the
+ * start and end times. Rows with weekdays, from 1 for Monday to 7 for Sunday separated by semicolons, repeat on those days
+ * every given number of weeks, as weekly occupations created in the interface.
+ *
+ * Every row is expanded and checked against the occupations of its spaces, and against the rows before it, before anything
+ * is written, through an index of the occupied intervals of the target spaces by day, built once for the whole schedule. The
+ * rows without conflicts are then created in batches, each in its own transaction, where every space is checked again
+ * against the occupations it has by then. No email is sent per occupation: the report groups the created occupations by
+ * receivers, so one message can be sent to each.
+ */
+public class OccupationImport {
+
+    private static final Logger logger = LoggerFactory.getLogger(OccupationImport.class);
+
+    public static final String SPACES = "spaces";
+    public static final String SUBJECT = "subject";
+    public static final String DESCRIPTION = "description";
+    public static final String EMAILS = "emails";
+    public static final String START_DATE = "startDate";
+    public static final String END_DATE = "endDate";
+    public static final String START_TIME = "startTime";
+    public static final String END_TIME = "endTime";
+    public static final String WEEKDAYS = "weekdays";
+    public static final String REPEATS_EVERY = "repeatsEvery";
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd");
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormat.forPattern("HH:mm");
+
+    private static final String LIST_SEPARATOR = ";";
+
+    public static class Report {
+
+        private int accepted;
+
+        private int created;
+
+        private final SortedMap<Integer, String> errors = new TreeMap<>();
+
+        private final Map<String, List<String>> notifications = new LinkedHashMap<>();
+
+        /**
+         * Number of rows that passed the checks done before anything is written.
+         */
+        public int getAccepted() {
+            return accepted;
+        }
+
+        public int getCreated() {
+            return created;
+        }
+
+        /**
+         * Why each row that was not imported failed, by line.
+         */
+        public SortedMap<Integer, String> getErrors() {
+            return Collections.unmodifiableSortedMap(errors);
+        }
+
+        /**
+         * Summaries of the created occupations, grouped by their receivers.
+         */
+        public Map<String, List<String>> getNotifications() {
+            return Collections.unmodifiableMap(notifications);
+        }
+    }
+
+    /**
+     * A row expanded into the intervals it occupies.
+     */
+    private static class Checked {
+
+        private final int line;
+
+        private final Set<String> spaces;
+
+        private final String subject;
+
+        private final String description;
+
+        private final String emails;
+
+        private final ExplicitConfigWithSettings config;
+
+        private Checked(int line, Set<String> spaces, String subject, String description, String emails,
+                ExplicitConfigWithSettings config) {
+            this.line = line;
+            this.spaces = spaces;
+            this.subject = subject;
+            this.description = description;
+            this.emails = emails;
+            this.config = config;
+        }
+    }
+
+    /**
+     * Occupied intervals of a set of spaces, by space and day.
+     */
+    private static class ConflictIndex {
+
+        private final Map<String, Map<LocalDate, List<Interval>>> occupied = new HashMap<>();
+
+        private final Set<String> indexed = new HashSet<>();
+
+        private void index(Space space, Interval window) {
+            if (!indexed.add(space.getExternalId())) {
+                return;
+            }
+            for (Occupation occupation : space.getOccupationSet()) {
+                for (Interval interval : occupation.getIntervals()) {
+                    if (interval.overlaps(window)) {
+                        add(space.getExternalId(), interval);
+                    }
+                }
+            }
+        }
+
+        private void add(String space, Interval interval) {
+            final Map<LocalDate, List<Interval>> days = occupied.computeIfAbsent(space, key -> new HashMap<>());
+            for (LocalDate day : days(interval)) {
+                days.computeIfAbsent(day, key -> new ArrayList<>()).add(interval);
+            }
+        }
+
+        private boolean overlaps(String space, Interval interval) {
+            final Map<LocalDate, List<Interval>> days = occupied.get(space);
+            if (days != null) {
+                for (LocalDate day : days(interval)) {
+                    for (Interval other : days.getOrDefault(day, Collections.emptyList())) {
+                        if (other.overlaps(interval)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static List<LocalDate> days(Interval interval) {
+            final List<LocalDate> days = new ArrayList<>();
+            final LocalDate last = interval.getEnd().minusMillis(1).toLocalDate();
+            for (LocalDate day = interval.getStart().toLocalDate(); !day.isAfter(last); day = day.plusDays(1)) {
+                days.add(day);
+            }
+            return days;
+        }
+    }
+
+    /**
+     * What a batch transaction did, only merged into the report once it commits.
+     */
+    private static class BatchResult {
+
+        private int created;
+
+        private final Map<Integer, String> errors = new HashMap<>();
+
+        private final Map<String, List<String>> notifications = new LinkedHashMap<>();
+    }
+
+    /**
+     * Imports the given schedule as the given user, or only checks it if dry run is set. Must not be called inside a
+     * transaction, since each batch commits on its own.
+     */
+    public static Report run(List<SpaceImport.Row> rows, User user, boolean dryRun) {
+        final Report report = new Report();
+        final List<Checked> checked = check(rows, user, report);
+        report.accepted = checked.size();
+        if (dryRun) {
+            return report;
+        }
+
+        final int batchSize = Math.max(1, FenixEduSpaceConfiguration.getConfiguration().occupationImportBatchSize());
+        for (List<Checked> batch : Lists.partition(checked, batchSize)) {
+            try {
+                merge(report, create(batch));
+            } catch (RuntimeException e) {
+                logger.warn("Schedule batch starting on line {} failed, importing its rows one by one", batch.get(0).line, e);
+                for (Checked row : batch) {
+                    try {
+                        merge(report, create(Collections.singletonList(row)));
+                    } catch (DomainException rowFailure) {
+                        report.errors.put(row.line, rowFailure.getLocalizedMessage());
+                    } catch (RuntimeException rowFailure) {
+                        report.errors.put(row.line,
+                                new SpaceDomainException("error.import.failed", String.valueOf(rowFailure.getMessage()))
+                                        .getLocalizedMessage());
+                    }
+                }
+            }
+        }
+        return report;
+    }
+
+    private static void merge(Report report, BatchResult result) {
+        report.created += result.created;
+        report.errors.putAll(result.errors);
+        for (Map.Entry<String, List<String>> notification : result.notifications.entrySet()) {
+            report.notifications.computeIfAbsent(notification.getKey(), key -> new ArrayList<>()).addAll(
+                    notification.getValue());
+        }
+    }
+
+    @Atomic(mode = TxMode.READ)
+    private static List<Checked> check(List<SpaceImport.Row> rows, User user, Report report) {
+        final Map<String, String> paths = new HashMap<>();
+        final Map<Integer, Checked> expanded = new LinkedHashMap<>();
+        DateTime windowStart = null, windowEnd = null;
+        for (SpaceImport.Row row : rows) {
+            try {
+                final Checked checked = expand(row, user, paths);
+                expanded.put(row.getLine(), checked);
+                for (Interval interval : checked.config.getIntervals()) {
+                    if (windowStart == null || interval.getStart().isBefore(windowStart)) {
+                        windowStart = interval.getStart();
+                    }
+                    if (windowEnd == null || interval.getEnd().isAfter(windowEnd)) {
+                        windowEnd = interval.getEnd();
+                    }
+                }
+            } catch (DomainException e) {
+                report.errors.put(row.getLine(), e.getLocalizedMessage());
+            }
+        }
+
+        final List<Checked> accepted = new ArrayList<>();
+        if (expanded.isEmpty()) {
+            return accepted;
+        }
+        final ConflictIndex index = new ConflictIndex();
+        final Interval window = new Interval(windowStart, windowEnd);
+        for (Checked row : expanded.values()) {
+            for (String spaceId : row.spaces) {
+                index.index(FenixFramework.getDomainObject(spaceId), window);
+            }
+        }
+
+        for (Checked row : expanded.values()) {
+            final String conflict = findConflict(row, index);
+            if (conflict != null) {
+                report.errors.put(row.line, new SpaceDomainException("error.import.occupation.conflict", conflict)
+                        .getLocalizedMessage());
+                continue;
+            }
+            for (String spaceId : row.spaces) {
+                for (Interval interval : row.config.getIntervals()) {
+                    index.add(spaceId, interval);
+                }
+            }
+            accepted.add(row);
+        }
+        return accepted;
+    }
+
+    private static String findConflict(Checked row, ConflictIndex index) {
+        for (String spaceId : row.spaces) {
+            for (Interval interval : row.config.getIntervals()) {
+                if (index.overlaps(spaceId, interval)) {
+                    final Space space = FenixFramework.getDomainObject(spaceId);
+                    return space.getName() + " " + interval.getStart().toString("yyyy-MM-dd HH:mm");
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Checked expand(SpaceImport.Row row, User user, Map<String, String> paths) {
+        final Map<String, String> values = row.getValues();
+        final String subject = required(values, SUBJECT);
+        final String description = Strings.nullToEmpty(values.get(DESCRIPTION)).trim();
+        final String emails = Strings.nullToEmpty(values.get(EMAILS)).trim();
+
+        final Set<String> spaces = new LinkedHashSet<>();
+        for (String path : required(values, SPACES).split(LIST_SEPARATOR)) {
+            if (path.trim().isEmpty()) {
+                continue;
+            }
+            final Space space = SpaceImport.resolve(SpaceImport.normalize(path), paths);
+            if (!space.isOccupationMember(user)) {
+                throw new SpaceDomainException("error.import.occupation.unauthorized", space.getName());
+            }
+            spaces.add(space.getExternalId());
+        }
+
+        final LocalDate startDate = parse(values, START_DATE, DATE_FORMAT).toLocalDate();
+        final LocalDate endDate =
+                Strings.isNullOrEmpty(values.get(END_DATE)) ? startDate : parse(values, END_DATE, DATE_FORMAT).toLocalDate();
+        final LocalTime startTime = parse(values, START_TIME, TIME_FORMAT).toLocalTime();
+        final LocalTime endTime = parse(values, END_TIME, TIME_FORMAT).toLocalTime();
+        if (endDate.isBefore(startDate) || !startTime.isBefore(endTime)) {
+            throw new SpaceDomainException("error.import.invalid", END_TIME, values.get(END_TIME));
+        }
+
+        final List<Integer> weekdays = new ArrayList<>();
+        for (String weekday : Strings.nullToEmpty(values.get(WEEKDAYS)).split(LIST_SEPARATOR)) {
+            if (!weekday.trim().isEmpty()) {
+                weekdays.add(parseInt(WEEKDAYS, weekday.trim(), 1, 7));
+            }
+        }
+        final String repeats = values.get(REPEATS_EVERY);
+        final int repeatsEvery = Strings.isNullOrEmpty(repeats) ? 1 : parseInt(REPEATS_EVERY, repeats.trim(), 1, 52);
+
+        final List<Interval> intervals = new ArrayList<>();
+        if (weekdays.isEmpty()) {
+            intervals.add(new Interval(startDate.toDateTime(startTime), endDate.toDateTime(endTime)));
+        } else {
+            final LocalDate firstMonday = startDate.withDayOfWeek(1);
+            for (LocalDate week = firstMonday; !week.isAfter(endDate); week = week.plusWeeks(repeatsEvery)) {
+                for (int weekday = 1; weekday <= 7; weekday++) {
+                    final LocalDate day = week.withDayOfWeek(weekday);
+                    if (weekdays.contains(weekday) && !day.isBefore(startDate) && !day.isAfter(endDate)) {
+                        intervals.add(new Interval(day.toDateTime(startTime), day.toDateTime(endTime)));
+                    }
+                }
+            }
+            if (intervals.isEmpty()) {
+                throw new SpaceDomainException("error.import.invalid", WEEKDAYS, values.get(WEEKDAYS));
+            }
+        }
+
+        final ExplicitConfigWithSettings config =
+                weekdays.isEmpty() ? new ExplicitConfigWithSettings(startDate.toDateTime(startTime),
+                        endDate.toDateTime(endTime), false, intervals) : new ExplicitConfigWithSettings(
+                        startDate.toDateTime(startTime), endDate.toDateTime(endTime), false, repeatsEvery, Frequency.WEEKLY,
+                        weekdays, null, intervals);
+        return new Checked(row.getLine(), spaces, subject, description, emails, config);
+    }
+
+    private static String required(Map<String, String> values, String column) {
+        final String value = values.get(column);
+        if (Strings.isNullOrEmpty(value) || value.trim().isEmpty()) {
+            throw new SpaceDomainException("error.import.missing", column);
+        }
+        return value.trim();
+    }
+
+    private static DateTime parse(Map<String, String> values, String column, DateTimeFormatter format) {
+        final String value = required(values, column);
+        try {
+            return format.parseDateTime(value);
+        } catch (IllegalArgumentException e) {
+            throw new SpaceDomainException("error.import.invalid", column, value);
+        }
+    }
+
+    private static int parseInt(String column, String value, int min, int max) {
+        try {
+            final int number = Integer.parseInt(value);
+            if (number >= min && number <= max) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+        }
+        throw new SpaceDomainException("error.import.invalid", column, value);
+    }
+
+    @Atomic(mode = TxMode.WRITE)
+    private static BatchResult create(List<Checked> batch) {
+        final BatchResult result = new BatchResult();
+        for (Checked row : batch) {
+            final List<Space> spaces = new ArrayList<>();
+            String conflict = null;
+            for (String spaceId : row.spaces) {
+                final Space space = FenixFramework.getDomainObject(spaceId);
+                if (!space.isFree(row.config.getIntervals())) {
+                    conflict = space.getName();
+                }
+                spaces.add(space);
+            }
+            if (conflict != null) {
+                result.errors.put(row.line, new SpaceDomainException("error.import.occupation.conflict", conflict)
+                        .getLocalizedMessage());
+                continue;
+            }
+
+            final Occupation occupation = new Occupation(row.emails, row.subject, row.description, row.config);
+            for (Space space : spaces) {
+                occupation.addSpace(space);
+            }
+            if (!row.emails.isEmpty()) {
+                result.notifications.computeIfAbsent(row.emails, key -> new ArrayList<>()).add(
+                        row.subject + " " + row.config.getSummary());
+            }
+            result.created++;
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.fenixedu.bennu.core.domain.Bennu;
+import org.fenixedu.bennu.core.signals.Signal;
+import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.domain.submission.SpacePhotoSubmission;
+
+import pt.ist.fenixframework.FenixFramework;
+
+/**
+ * Pending photo submissions of the whole tree, ordered by creation instant, each tagged with the spaces it falls under.
+ *
+ * The index is built from the global set of pending submissions, so reading the queue of any subtree never walks the
+ * spaces of that subtree, and the number of submissions pending under each space is kept ready for badges. It is rebuilt
+ * after any submission enters or leaves review, and periodically to follow spaces moved between parents.
+ */
+public class PendingPhotoSubmissionIndex {
+
+    private static class Entry {
+
+        private final String submission;
+
+        private final Set<String> ancestors;
+
+        private Entry(SpacePhotoSubmission submission) {
+            this.submission = submission.getExternalId();
+            this.ancestors = new HashSet<>();
+            for (Space space = submission.getSpacePending(); space != null; space = space.getParent()) {
+                ancestors.add(space.getExternalId());
+            }
+        }
+    }
+
+    private static class Snapshot {
+
+        private final List<Entry> entries;
+
+        private final Map<String, Integer> counts = new HashMap<>();
+
+        private Snapshot(List<Entry> entries) {
+            this.entries = entries;
+            for (Entry entry : entries) {
+                for (String ancestor : entry.ancestors) {
+                    counts.merge(ancestor, 1, Integer::sum);
+                }
+            }
+        }
+    }
+
+    private static final DomainSnapshot<Snapshot> snapshot = new DomainSnapshot<>(() -> new Snapshot(Bennu.getInstance()
+            .getPendingSpacePhotoSubmissionSet().stream().filter(SpacePhotoSubmission::isPending)
+            .sorted(SpacePhotoSubmission.COMPARATOR_BY_INSTANT.reversed()).map(Entry::new).collect(Collectors.toList())));
+
+    static {
+        Signal.registerWithoutTransaction(SpacePhotoSubmission.PENDING_CHANGED_SIGNAL, event -> snapshot.invalidate());
+    }
+
+    /**
+     * Submissions waiting for review in the given space or any space below it, most recent first.
+     */
+    public static List<SpacePhotoSubmission> getPendingSubmissions(Space space) {
+        final String spaceId = space.getExternalId();
+        final List<SpacePhotoSubmission> submissions = new ArrayList<>();
+        for (Entry entry : snapshot.get().entries) {
+            if (entry.ancestors.contains(spaceId)) {
+                final SpacePhotoSubmission submission = FenixFramework.getDomainObject(entry.submission);
+                if (FenixFramework.isDomainObjectValid(submission) && submission.isPending()) {
+                    submissions.add(submission);
+                }
+            }
+        }
+        return submissions;
+    }
+
+    /**
+     * Number of submissions waiting for review in the given space or any space below it.
+     */
+    public static int getPendingCount(Space space) {
+        return snapshot.get().counts.getOrDefault(space.getExternalId(), 0);
+    }
+
+    /**
+     * Number of submissions waiting for review under each space, by external id.
+     */
+    public static Map<String, Integer> getPendingCounts() {
+        return Collections.unmodifiableMap(snapshot.get().counts);
+    }
+
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.awt.geom.AffineTransform;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Optional;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Turns uploaded photos into upright, metadata free JPEGs no larger than a given size.
+ */
+public class PhotoNormalizer {
+
+    private static final int EXIF_ORIENTATION_TAG = 0x0112;
+
+    /**
+     * Decodes the photo, applies its EXIF orientation, caps its longest edge at maxEdge pixels and encodes it again as JPEG,
+     * which drops all of its metadata.
+     *
+     * @return the normalized photo, or empty if the content cannot be read as an image
+     */
+    public static Optional<byte[]> normalize(byte[] content, int maxEdge) throws IOException {
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(content));
+        if (image == null) {
+            return Optional.empty();
+        }
+        // always redrawn, so that transparent or palettized images end up as plain RGB over white
+        final BufferedImage resized =
+                PhotoResizer.resize(image, Math.min(maxEdge, Math.max(image.getWidth(), image.getHeight())));
+        return Optional.of(PhotoResizer.toJPEG(orient(resized, readOrientation(content))));
+    }
+
+    /**
+     * Rotates and flips the image as described by an EXIF orientation value, so that it shows upright.
+     */
+    public static BufferedImage orient(BufferedImage image, int orientation) {
+        if (orientation < 2 || orientation > 8) {
+            return image;
+        }
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final AffineTransform transform = new AffineTransform();
+        switch (orientation) {
+        case 2: // mirrored
+            transform.scale(-1, 1);
+            transform.translate(-width, 0);
+            break;
+        case 3: // upside down
+            transform.translate(width, height);
+            transform.rotate(Math.PI);
+            break;
+        case 4: // upside down and mirrored
+            transform.scale(1, -1);
+            transform.translate(0, -height);
+            break;
+        case 5: // rotated left and mirrored
+            transform.rotate(-Math.PI / 2);
+            transform.scale(-1, 1);
+            break;
+        case 6: // rotated left
+            transform.translate(height, 0);
+            transform.rotate(Math.PI / 2);
+            break;
+        case 7: // rotated right and mirrored
+            transform.scale(-1, 1);
+            transform.translate(-height, 0);
+            transform.translate(0, width);
+            transform.rotate(3 * Math.PI / 2);
+            break;
+        case 8: // rotated right
+            transform.translate(0, width);
+            transform.rotate(3 * Math.PI / 2);
+            break;
+        }
+        final boolean swapsAxes = orientation >= 5;
+        final BufferedImage target =
+                new BufferedImage(swapsAxes ? height : width, swapsAxes ? width : height, BufferedImage.TYPE_3BYTE_BGR);
+        return new AffineTransformOp(transform, AffineTransformOp.TYPE_NEAREST_NEIGHBOR).filter(image, target);
+    }
+
+    /**
+     * Reads the orientation from the EXIF segment of a JPEG file.
+     *
+     * @return the orientation, from 1 to 8, or 1 if the content is not a JPEG or has no orientation
+     */
+    public static int readOrientation(byte[] content) {
+        if (content.length < 4 || (content[0] & 0xFF) != 0xFF || (content[1] & 0xFF) != 0xD8) {
+            return 1;
+        }
+        int offset = 2;
+        while (offset + 4 <= content.length && (content[offset] & 0xFF) == 0xFF) {
+            final int marker = content[offset + 1] & 0xFF;
+            final int length = ((content[offset + 2] & 0xFF) << 8) | (content[offset + 3] & 0xFF);
+            if (marker == 0xDA || length < 2) {
+                // image data starts, no more metadata
+                return 1;
+            }
+            if (marker == 0xE1 && isExif(content, offset + 4)) {
+                return readOrientation(content, offset + 10, Math.min(content.length, offset + 2 + length));
+            }
+            offset += 2 + length;
+        }
+        return 1;
+    }
+
+    private static boolean isExif(byte[] content, int offset) {
+        return offset + 6 <= content.length && content[offset] == 'E' && content[offset + 1] == 'x' && content[offset + 2] == 'i'
+                && content[offset + 3] == 'f' && content[offset + 4] == 0 && content[offset + 5] == 0;
+    }
+
+    private static int readOrientation(byte[] content, int tiff, int end) {
+        if (tiff + 8 > end) {
+            return 1;
+        }
+        final boolean littleEndian = content[tiff] == 'I' && content[tiff + 1] == 'I';
+        final int ifd = tiff + readInt(content, tiff + 4, littleEndian);
+        if (ifd < tiff || ifd + 2 > end) {
+            return 1;
+        }
+        final int entries = readShort(content, ifd, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            final int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                return 1;
+            }
+            if (readShort(content, entry, littleEndian) == EXIF_ORIENTATION_TAG) {
+                final int orientation = readShort(content, entry + 8, littleEndian);
+                return orientation >= 1 && orientation <= 8 ? orientation : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static int readShort(byte[] content, int offset, boolean littleEndian) {
+        final int first = content[offset] & 0xFF;
+        final int second = content[offset + 1] & 0xFF;
+        return littleEndian ? (second << 8) | first : (first << 8) | second;
+    }
+
+    private static int readInt(byte[] content, int offset, boolean littleEndian) {
+        final int high = readShort(content, littleEndian ? offset + 2 : offset, littleEndian);
+        final int low = readShort(content, littleEndian ? offset : offset + 2, littleEndian);
+        return (high << 16) | low;
+    }
+
+}
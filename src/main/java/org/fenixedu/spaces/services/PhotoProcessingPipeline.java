@@ -0,0 +1,136 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.fenixedu.bennu.FenixEduSpaceConfiguration;
+import org.fenixedu.bennu.core.signals.DomainObjectEvent;
+import org.fenixedu.bennu.core.signals.Signal;
+import org.fenixedu.spaces.domain.submission.SpacePhoto;
+import org.fenixedu.spaces.domain.submission.SpacePhotoSize;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ist.fenixframework.Atomic;
+import pt.ist.fenixframework.Atomic.TxMode;
+import pt.ist.fenixframework.FenixFramework;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Normalizes uploaded photos in the background: applies their EXIF orientation, strips their metadata, caps their size and
+ * generates their scaled down versions.
+ *
+ * Photos are decoded and encoded outside of any transaction, which is only used to read the upload and to store the result.
+ * When the queue is full the photo is kept as uploaded until {@link #process(SpacePhoto)} is run for it again.
+ */
+public class PhotoProcessingPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhotoProcessingPipeline.class);
+
+    private static ThreadPoolExecutor executor;
+
+    public static synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        final int threads = FenixEduSpaceConfiguration.getConfiguration().photoProcessingThreads();
+        final int queueSize = FenixEduSpaceConfiguration.getConfiguration().photoProcessingQueueSize();
+        executor =
+                new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                        new ThreadFactoryBuilder().setNameFormat("photo-processing-%d").setDaemon(true).build());
+        Signal.registerWithoutTransaction(SpacePhoto.PHOTO_CREATED_SIGNAL,
+                (DomainObjectEvent<SpacePhoto> event) -> submit(event.getInstance()));
+    }
+
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    public static void submit(SpacePhoto photo) {
+        final ThreadPoolExecutor executor = PhotoProcessingPipeline.executor;
+        if (executor == null) {
+            return;
+        }
+        final String photoId = photo.getExternalId();
+        try {
+            executor.execute(() -> {
+                try {
+                    process(photoId);
+                } catch (Exception e) {
+                    logger.error("Could not process photo " + photoId, e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Too many photos waiting to be processed, {} is kept as uploaded", photoId);
+        }
+    }
+
+    /**
+     * Normalizes the given photo in the current transaction.
+     */
+    public static void process(SpacePhoto photo) throws IOException {
+        final Optional<byte[]> normalized = normalize(photo.getContent());
+        if (normalized.isPresent()) {
+            photo.replaceContent(normalized.get(), PhotoResizer.derivatives(normalized.get()));
+        }
+    }
+
+    private static void process(String photoId) throws IOException {
+        final byte[] content = read(photoId);
+        if (content == null) {
+            return;
+        }
+        final Optional<byte[]> normalized = normalize(content);
+        if (normalized.isPresent()) {
+            store(photoId, normalized.get(), PhotoResizer.derivatives(normalized.get()));
+        } else {
+            logger.warn("Photo {} is not an image, it is kept as uploaded", photoId);
+        }
+    }
+
+    private static Optional<byte[]> normalize(byte[] content) throws IOException {
+        return PhotoNormalizer.normalize(content, FenixEduSpaceConfiguration.getConfiguration().photoMaxEdge());
+    }
+
+    @Atomic(mode = TxMode.READ)
+    static byte[] read(String photoId) {
+        final SpacePhoto photo = FenixFramework.getDomainObject(photoId);
+        return FenixFramework.isDomainObjectValid(photo) ? photo.getContent() : null;
+    }
+
+    @Atomic(mode = TxMode.WRITE)
+    static void store(String photoId, byte[] content, Map<SpacePhotoSize, byte[]> derivatives) {
+        final SpacePhoto photo = FenixFramework.getDomainObject(photoId);
+        if (FenixFramework.isDomainObjectValid(photo)) {
+            photo.replaceContent(content, derivatives);
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.fenixedu.spaces.domain.submission.SpacePhotoSize;
+
+/**
+ * Scales photos down to a maximum size, as JPEG.
+ */
+public class PhotoResizer {
+
+    private static final float JPEG_QUALITY = 0.85f;
+
+    /**
+     * Scales the photo down to every derivative size smaller than the photo itself.
+     */
+    public static Map<SpacePhotoSize, byte[]> derivatives(byte[] content) throws IOException {
+        final Map<SpacePhotoSize, byte[]> derivatives = new EnumMap<>(SpacePhotoSize.class);
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(content));
+        if (image == null) {
+            throw new IOException("Not an image");
+        }
+        for (SpacePhotoSize size : SpacePhotoSize.values()) {
+            if (size.isDerivative() && Math.max(image.getWidth(), image.getHeight()) > size.getMaxEdge()) {
+                derivatives.put(size, toJPEG(resize(image, size.getMaxEdge())));
+            }
+        }
+        return derivatives;
+    }
+
+    /**
+     * Halves the image until it is less than twice the target size before the final bilinear step, which keeps the quality
+     * close to a bicubic filter at a fraction of the cost.
+     */
+    public static BufferedImage resize(BufferedImage image, int maxEdge) {
+        final double ratio = (double) maxEdge / Math.max(image.getWidth(), image.getHeight());
+        final int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        final int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        do {
+            width = width / 2 >= targetWidth ? width / 2 : targetWidth;
+            height = height / 2 >= targetHeight ? height / 2 : targetHeight;
+            current = draw(current, width, height);
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height) {
+        final BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        final Graphics2D graphics2D = target.createGraphics();
+        graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics2D.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        graphics2D.setBackground(Color.WHITE);
+        graphics2D.clearRect(0, 0, width, height);
+        graphics2D.drawImage(source, 0, 0, width, height, null);
+        graphics2D.dispose();
+        return target;
+    }
+
+    public static byte[] toJPEG(BufferedImage image) throws IOException {
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        final ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(JPEG_QUALITY);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(outputStream)) {
+            writer.setOutput(imageOutputStream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return outputStream.toByteArray();
+    }
+
+}
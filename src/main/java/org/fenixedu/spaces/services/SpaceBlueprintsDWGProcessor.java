@@ -20,7 +20,9 @@ package org.fenixedu.spaces.services;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.geom.Point2D;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -28,8 +30,8 @@ import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Vector;
 
 import javax.servlet.UnavailableException;
 
@@ -37,11 +39,11 @@ import org.fenixedu.spaces.domain.BlueprintFile;
 import org.fenixedu.spaces.domain.BlueprintFile.BlueprintTextRectangle;
 import org.fenixedu.spaces.domain.BlueprintFile.BlueprintTextRectangles;
 import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.services.BlueprintRenderCache.RenderedBlueprint;
 import org.joda.time.DateTime;
 
 import com.google.common.io.Files;
 import com.google.common.io.InputSupplier;
-import com.iver.cit.jdwglib.dwg.DwgFile;
 import com.iver.cit.jdwglib.dwg.DwgObject;
 import com.iver.cit.jdwglib.dwg.objects.DwgMText;
 import com.iver.cit.jdwglib.dwg.objects.DwgText;
@@ -64,6 +66,8 @@ public class SpaceBlueprintsDWGProcessor extends DWGProcessor {
 
     private DateTime when;
 
+    private Map<String, Space> childrenByBlueprintNumber;
+
     public SpaceBlueprintsDWGProcessor(Space space, DateTime when, Boolean viewBlueprintNumbers_,
             Boolean viewSpaceIdentifications_, Boolean viewDoorNumbers_, BigDecimal scalePercentage) throws IOException {
 
@@ -94,7 +98,7 @@ public class SpaceBlueprintsDWGProcessor extends DWGProcessor {
             int x = convXCoord(dwgMText.getInsertionPoint()[0], referenceConverter);
             int y = convYCoord(dwgMText.getInsertionPoint()[1], referenceConverter);
 
-            Optional<Space> discoveredSpace = getParentSpace().readChildByBlueprintNumber(text.trim(), when);
+            Optional<Space> discoveredSpace = readChildByBlueprintNumber(text);
             if (discoveredSpace.isPresent()) {
                 String textToInsert =
                         getTextToInsert(text, discoveredSpace.get(), isToViewBlueprintNumbers(), isToViewSpaceIdentifications(),
@@ -116,7 +120,7 @@ public class SpaceBlueprintsDWGProcessor extends DWGProcessor {
             int x = convXCoord(point2D.getX(), referenceConverter);
             int y = convYCoord(point2D.getY(), referenceConverter);
 
-            Optional<Space> discoveredSpace = getParentSpace().readChildByBlueprintNumber(dwgText.getText().trim(), when);
+            Optional<Space> discoveredSpace = readChildByBlueprintNumber(dwgText.getText());
             if (discoveredSpace.isPresent()) {
                 String textToInsert =
                         getTextToInsert(dwgText.getText(), discoveredSpace.get(), isToViewBlueprintNumbers(),
@@ -126,6 +130,13 @@ public class SpaceBlueprintsDWGProcessor extends DWGProcessor {
         }
     }
 
+    private Optional<Space> readChildByBlueprintNumber(String text) {
+        if (childrenByBlueprintNumber == null) {
+            childrenByBlueprintNumber = getParentSpace().getChildrenByBlueprintNumber(when);
+        }
+        return Optional.ofNullable(childrenByBlueprintNumber.get(text.trim()));
+    }
+
     public static BlueprintTextRectangles getBlueprintTextRectangles(final InputStream inputStream, Space parentSpace,
             DateTime when, Boolean viewBlueprintNumbers, Boolean viewOriginalSpaceBlueprint, Boolean viewSpaceIdentifications,
             Boolean viewDoorNumbers, BigDecimal scalePercentage) throws IOException {
@@ -136,24 +147,36 @@ public class SpaceBlueprintsDWGProcessor extends DWGProcessor {
         }
 
         final File file = File.createTempFile("blueprint", "dwg");
-        Files.copy(new InputSupplier<InputStream>() {
+        try {
+            Files.copy(new InputSupplier<InputStream>() {
 
-            @Override
-            public InputStream getInput() throws IOException {
-                return inputStream;
-            }
-        }, file);
-        final SpaceBlueprintsDWGProcessor processor = new SpaceBlueprintsDWGProcessor(scalePercentage);
-        final DwgFile dwgFile = processor.readDwgFile(file.getAbsolutePath());
-        final Vector<DwgObject> dwgObjects = dwgFile.getDwgObjects();
-        final ReferenceConverter referenceConverter = new ReferenceConverter(dwgObjects, processor.scaleRatio);
+                @Override
+                public InputStream getInput() throws IOException {
+                    return inputStream;
+                }
+            }, file);
+            final SpaceBlueprintsDWGProcessor processor = new SpaceBlueprintsDWGProcessor(scalePercentage);
+            final ParsedBlueprint blueprint = processor.parse(file.getAbsolutePath());
+            return getBlueprintTextRectangles(processor, blueprint, parentSpace.getChildrenByBlueprintNumber(when),
+                    viewBlueprintNumbers, viewSpaceIdentifications, viewDoorNumbers);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static BlueprintTextRectangles getBlueprintTextRectangles(final SpaceBlueprintsDWGProcessor processor,
+            final ParsedBlueprint blueprint, final Map<String, Space> children, Boolean viewBlueprintNumbers,
+            Boolean viewSpaceIdentifications, Boolean viewDoorNumbers) {
 
-        for (final DwgObject dwgObject : dwgObjects) {
+        final BlueprintTextRectangles map = new BlueprintTextRectangles();
+        final ReferenceConverter referenceConverter = blueprint.referenceConverter;
+
+        for (final DwgObject dwgObject : blueprint.index.getObjects()) {
 
             if (dwgObject instanceof DwgText) {
                 DwgText dwgText = ((DwgText) dwgObject);
                 final Point2D point2D = dwgText.getInsertionPoint();
-                Optional<Space> discoveredSpace = parentSpace.readChildByBlueprintNumber(dwgText.getText().trim(), when);
+                Optional<Space> discoveredSpace = Optional.ofNullable(children.get(dwgText.getText().trim()));
                 if (discoveredSpace.isPresent()) {
                     String textToInsert =
                             getTextToInsert(dwgText.getText(), discoveredSpace.get(), viewBlueprintNumbers,
@@ -164,7 +187,7 @@ public class SpaceBlueprintsDWGProcessor extends DWGProcessor {
             } else if (dwgObject instanceof DwgMText) {
                 DwgMText dwgMText = (DwgMText) dwgObject;
                 String text = getText(dwgMText);
-                Optional<Space> discoveredSpace = parentSpace.readChildByBlueprintNumber(text.trim(), when);
+                Optional<Space> discoveredSpace = Optional.ofNullable(children.get(text.trim()));
                 if (discoveredSpace.isPresent()) {
                     String textToInsert =
                             getTextToInsert(text, discoveredSpace.get(), viewBlueprintNumbers, viewSpaceIdentifications,
@@ -177,6 +200,88 @@ public class SpaceBlueprintsDWGProcessor extends DWGProcessor {
         return map;
     }
 
+    /**
+     * Renders the default view of the blueprint of the given space (identifications at the default scale) together with the
+     * label rectangles linking to its children, parsing the DWG only once.
+     *
+     * @throws IOException if the blueprint cannot be read or has nothing to draw
+     */
+    public static RenderedBlueprint renderDefaultView(final Space blueprintSpace, final BlueprintImageFormat format)
+            throws IOException {
+        final BlueprintFile blueprintFile = blueprintSpace.getBlueprintFile().get();
+        final String fingerprint = BlueprintRenderCache.fingerprint(blueprintSpace);
+        final SpaceBlueprintsDWGProcessor processor =
+                new SpaceBlueprintsDWGProcessor(blueprintSpace, new DateTime(), false, true, false,
+                        BlueprintRenderCache.DEFAULT_SCALE);
+        final ParsedBlueprint blueprint = processor.parse(blueprintFile);
+        if (blueprint.index.getObjects().isEmpty()) {
+            throw new IOException("Blueprint " + blueprintFile.getExternalId() + " has nothing to draw");
+        }
+
+        final ByteArrayOutputStream image = new ByteArrayOutputStream();
+        processor.generateImage(blueprint, null, format, image);
+        final BlueprintTextRectangles links =
+                getBlueprintTextRectangles(processor, blueprint, processor.getParentSpace().getChildrenByBlueprintNumber(
+                        processor.when), false, true, false);
+        return new RenderedBlueprint(fingerprint, format, image.toByteArray(), links);
+    }
+
+    /**
+     * Finds the space whose label is drawn at the given point of the rendered blueprint, as produced with the same options.
+     * The point is relative to the viewport, if one was rendered.
+     */
+    public static Optional<Space> findSpaceAt(final BlueprintFile blueprintFile, Space parentSpace, DateTime when,
+            Boolean viewOriginalSpaceBlueprint, Boolean viewBlueprintNumbers, Boolean viewSpaceIdentifications,
+            Boolean viewDoorNumbers, BigDecimal scalePercentage, Rectangle viewport, int x, int y) throws IOException {
+        if (viewOriginalSpaceBlueprint != null && viewOriginalSpaceBlueprint) {
+            return Optional.empty();
+        }
+
+        final SpaceBlueprintsDWGProcessor processor = new SpaceBlueprintsDWGProcessor(scalePercentage);
+        final ParsedBlueprint blueprint = processor.parse(blueprintFile);
+        if (viewport != null) {
+            final Rectangle area = processor.getImageArea(blueprint, viewport);
+            x += area.x;
+            y += area.y;
+        }
+        final ReferenceConverter referenceConverter = blueprint.referenceConverter;
+        final BlueprintSpatialIndex index = blueprint.index;
+        final Map<String, Space> children = parentSpace.getChildrenByBlueprintNumber(when);
+
+        // a label at (lx, ly) covers [lx, lx + width] x [ly - fontSize, ly]
+        final int maxLabelWidth = TEXT_MARGIN_CHARACTERS * processor.fontSize;
+        for (final DwgObject dwgObject : query(referenceConverter, index, x - maxLabelWidth, y, x, y + processor.fontSize)) {
+            final String text;
+            final double textX;
+            final double textY;
+            if (dwgObject instanceof DwgText) {
+                final DwgText dwgText = (DwgText) dwgObject;
+                text = dwgText.getText();
+                textX = dwgText.getInsertionPoint().getX();
+                textY = dwgText.getInsertionPoint().getY();
+            } else if (dwgObject instanceof DwgMText) {
+                final DwgMText dwgMText = (DwgMText) dwgObject;
+                text = getText(dwgMText);
+                textX = dwgMText.getInsertionPoint()[0];
+                textY = dwgMText.getInsertionPoint()[1];
+            } else {
+                continue;
+            }
+            final Optional<Space> discoveredSpace = Optional.ofNullable(children.get(text.trim()));
+            if (discoveredSpace.isPresent()) {
+                final String textToInsert =
+                        getTextToInsert(text, discoveredSpace.get(), viewBlueprintNumbers, viewSpaceIdentifications,
+                                viewDoorNumbers);
+                if (textToInsert != null
+                        && new BlueprintTextRectangle(textToInsert, processor.convXCoord(textX, referenceConverter),
+                                processor.convYCoord(textY, referenceConverter), processor.fontSize).contains(x, y)) {
+                    return discoveredSpace;
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
     private static void putLinksCoordinatesToMap(BlueprintTextRectangles map, final SpaceBlueprintsDWGProcessor processor,
             final ReferenceConverter referenceConverter, double x, double y, String textToInsert, Space space) {
 
@@ -309,6 +414,22 @@ public class SpaceBlueprintsDWGProcessor extends DWGProcessor {
     public static void writeBlueprint(Space space, DateTime when, Boolean isToViewOriginalSpaceBlueprint,
             Boolean viewBlueprintNumbers, Boolean isToViewIdentifications, Boolean isToViewDoorNumbers,
             BigDecimal scalePercentage, final OutputStream writer) throws IOException, UnavailableException {
+        writeBlueprint(space, when, isToViewOriginalSpaceBlueprint, viewBlueprintNumbers, isToViewIdentifications,
+                isToViewDoorNumbers, scalePercentage, null, writer);
+    }
+
+    public static void writeBlueprint(Space space, DateTime when, Boolean isToViewOriginalSpaceBlueprint,
+            Boolean viewBlueprintNumbers, Boolean isToViewIdentifications, Boolean isToViewDoorNumbers,
+            BigDecimal scalePercentage, Rectangle viewport, final OutputStream writer) throws IOException,
+            UnavailableException {
+        writeBlueprint(space, when, isToViewOriginalSpaceBlueprint, viewBlueprintNumbers, isToViewIdentifications,
+                isToViewDoorNumbers, scalePercentage, viewport, BlueprintImageFormat.JPEG, writer);
+    }
+
+    public static void writeBlueprint(Space space, DateTime when, Boolean isToViewOriginalSpaceBlueprint,
+            Boolean viewBlueprintNumbers, Boolean isToViewIdentifications, Boolean isToViewDoorNumbers,
+            BigDecimal scalePercentage, Rectangle viewport, BlueprintImageFormat format, final OutputStream writer)
+            throws IOException, UnavailableException {
 
         Space suroundingSpaceMostRecentBlueprint = getSuroundingSpaceMostRecentBlueprint(space);
 
@@ -317,7 +438,6 @@ public class SpaceBlueprintsDWGProcessor extends DWGProcessor {
             Optional<BlueprintFile> blueprintFile = suroundingSpaceMostRecentBlueprint.getBlueprintFile();
 
             if (blueprintFile.isPresent()) {
-                final byte[] blueprintBytes = blueprintFile.get().getContent();
 
                 SpaceBlueprintsDWGProcessor processor = null;
 
@@ -331,7 +451,7 @@ public class SpaceBlueprintsDWGProcessor extends DWGProcessor {
                 }
 
                 if (processor != null) {
-                    processor.generateJPEGImage(blueprintBytes, writer);
+                    processor.generateImage(processor.parse(blueprintFile.get()), viewport, format, writer);
                 }
             }
 
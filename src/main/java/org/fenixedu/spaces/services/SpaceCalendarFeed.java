@@ -0,0 +1,291 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.fenixedu.bennu.core.signals.DomainObjectEvent;
+import org.fenixedu.bennu.core.signals.Signal;
+import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.domain.occupation.Occupation;
+import org.fenixedu.spaces.domain.occupation.SharedOccupation;
+import org.joda.time.Interval;
+
+import pt.ist.fenixframework.FenixFramework;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Fullcalendar events of the occupations of a space, answered from the intervals of its occupations sorted by start, so a
+ * window only visits the intervals that may intersect it.
+ *
+ * The intervals of a space are dropped when one of its occupations changes, or otherwise after five minutes. Occupations that
+ * are not of the {@link Occupation} class itself compute their intervals elsewhere and are always expanded when answering.
+ */
+public class SpaceCalendarFeed {
+
+    public static final String[] COLORS = new String[] { "#FF9999", "#FFCC99", "#FFFF99", "#CCFF99", "#99FF99", "#99FFFF" };
+
+    private static final long MAX_AGE = TimeUnit.MINUTES.toMillis(5);
+
+    private static class Slices {
+
+        private final long[] starts;
+
+        private final long[] ends;
+
+        private final String[] occupations;
+
+        private final long maxLength;
+
+        private final Set<String> indexed = new HashSet<>();
+
+        private final List<String> live = new ArrayList<>();
+
+        private Slices(Space space) {
+            final List<long[]> intervals = new ArrayList<>();
+            final List<String> owners = new ArrayList<>();
+            for (Occupation occupation : space.getOccupationSet()) {
+                if (!occupation.getClass().equals(Occupation.class)) {
+                    live.add(occupation.getExternalId());
+                    continue;
+                }
+                indexed.add(occupation.getExternalId());
+                for (Interval interval : occupation.getIntervals()) {
+                    intervals.add(new long[] { interval.getStartMillis(), interval.getEndMillis(), owners.size() });
+                    owners.add(occupation.getExternalId());
+                }
+            }
+            intervals.sort((a, b) -> Long.compare(a[0], b[0]));
+
+            starts = new long[intervals.size()];
+            ends = new long[intervals.size()];
+            occupations = new String[intervals.size()];
+            long longest = 0;
+            for (int i = 0; i < intervals.size(); i++) {
+                final long[] interval = intervals.get(i);
+                starts[i] = interval[0];
+                ends[i] = interval[1];
+                occupations[i] = owners.get((int) interval[2]);
+                longest = Math.max(longest, interval[1] - interval[0]);
+            }
+            maxLength = longest;
+        }
+
+        /**
+         * Position of the first interval that may intersect a window starting at the given instant: no interval starting
+         * before it can be long enough to reach the window.
+         */
+        private int first(long windowStart) {
+            final long from = windowStart - maxLength;
+            int position = Arrays.binarySearch(starts, from);
+            if (position < 0) {
+                return -position - 1;
+            }
+            while (position > 0 && starts[position - 1] == from) {
+                position--;
+            }
+            return position;
+        }
+    }
+
+    /**
+     * The spaces whose intervals are cached, by the occupations they were built from, kept in step with the cache.
+     */
+    private static final ConcurrentHashMap<String, Set<String>> spacesByOccupation = new ConcurrentHashMap<>();
+
+    private static final Cache<String, Slices> slices = CacheBuilder.newBuilder().maximumSize(5000)
+            .expireAfterWrite(MAX_AGE, TimeUnit.MILLISECONDS)
+            .removalListener((RemovalNotification<String, Slices> removal) -> forget(removal.getKey(), removal.getValue()))
+            .build();
+
+    private static final Set<String> changed = ConcurrentHashMap.newKeySet();
+
+    private static final AtomicLong generation = new AtomicLong();
+
+    static {
+        Signal.registerWithoutTransaction(Occupation.OCCUPATION_CHANGED_SIGNAL, (DomainObjectEvent<Occupation> event) -> {
+            changed.add(event.getInstance().getExternalId());
+            generation.incrementAndGet();
+        });
+    }
+
+    private static void forget(String spaceId, Slices removed) {
+        for (String occupationId : removed.indexed) {
+            spacesByOccupation.computeIfPresent(occupationId, (key, spaceIds) -> {
+                spaceIds.remove(spaceId);
+                return spaceIds.isEmpty() ? null : spaceIds;
+            });
+        }
+    }
+
+    private static Slices build(String spaceId) {
+        final Slices built = new Slices(FenixFramework.getDomainObject(spaceId));
+        for (String occupationId : built.indexed) {
+            spacesByOccupation.compute(occupationId, (key, spaceIds) -> {
+                final Set<String> ids = spaceIds == null ? new HashSet<>() : spaceIds;
+                ids.add(spaceId);
+                return ids;
+            });
+        }
+        return built;
+    }
+
+    /**
+     * Intervals are built in a transaction of their own, since the transaction of the caller may have started before the
+     * changes that were just dropped were committed. Intervals of different spaces are built concurrently.
+     */
+    private static Slices getSlices(Space space) {
+        final long before = generation.get();
+        if (!changed.isEmpty()) {
+            final List<String> occupationIds = new ArrayList<>(changed);
+            changed.removeAll(occupationIds);
+            final Set<String> spaceIds = new HashSet<>();
+            for (String occupationId : occupationIds) {
+                final Set<String> cached = spacesByOccupation.remove(occupationId);
+                if (cached != null) {
+                    spaceIds.addAll(cached);
+                }
+            }
+            spaceIds.addAll(DomainSnapshot.inOwnTransaction(() -> {
+                final Set<String> ids = new HashSet<>();
+                for (String occupationId : occupationIds) {
+                    final Occupation occupation = FenixFramework.getDomainObject(occupationId);
+                    if (FenixFramework.isDomainObjectValid(occupation)) {
+                        occupation.getSpaceSet().forEach(changedSpace -> ids.add(changedSpace.getExternalId()));
+                    }
+                }
+                return ids;
+            }));
+            slices.invalidateAll(spaceIds);
+        }
+
+        final String spaceId = space.getExternalId();
+        final boolean[] loaded = new boolean[1];
+        final Slices current;
+        try {
+            current = slices.get(spaceId, () -> {
+                loaded[0] = true;
+                return DomainSnapshot.inOwnTransaction(() -> build(spaceId));
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        if (loaded[0] && generation.get() != before) {
+            // an occupation changed while building, possibly after the transaction used to build had started
+            slices.invalidate(spaceId);
+        }
+        return current;
+    }
+
+    private static class Event {
+
+        private final int id;
+
+        private final String title;
+
+        private final String url;
+
+        private final boolean allDay;
+
+        private final String info;
+
+        private Event(int id, Occupation occupation) {
+            this.id = id;
+            this.title = occupation.getSubject();
+            this.url = occupation.getUrl();
+            this.allDay = occupation.getClass().equals(SharedOccupation.class);
+            this.info = occupation.getInfo();
+        }
+    }
+
+    /**
+     * Writes the events of the occupations of the given space intersecting the given window as a fullcalendar JSON array. The
+     * details of each occupation, including whether the current user may manage it, are computed once per call.
+     */
+    public static void write(Space space, Interval window, Writer out) throws IOException {
+        final Slices current = getSlices(space);
+        final Map<String, Event> events = new HashMap<>();
+        final JsonWriter writer = new JsonWriter(out);
+        writer.beginArray();
+
+        final long windowStart = window.getStartMillis();
+        final long windowEnd = window.getEndMillis();
+        for (int i = current.first(windowStart); i < current.starts.length && current.starts[i] < windowEnd; i++) {
+            if (windowStart < current.ends[i]) {
+                final Occupation occupation = FenixFramework.getDomainObject(current.occupations[i]);
+                if (FenixFramework.isDomainObjectValid(occupation)) {
+                    write(writer, event(events, occupation), current.starts[i], current.ends[i]);
+                }
+            }
+        }
+
+        for (String occupationId : current.live) {
+            final Occupation occupation = FenixFramework.getDomainObject(occupationId);
+            if (!FenixFramework.isDomainObjectValid(occupation)) {
+                continue;
+            }
+            for (Interval interval : occupation.getIntervals()) {
+                if (interval.overlaps(window)) {
+                    write(writer, event(events, occupation), interval.getStartMillis(), interval.getEndMillis());
+                }
+            }
+        }
+
+        writer.endArray();
+        writer.flush();
+    }
+
+    private static Event event(Map<String, Event> events, Occupation occupation) {
+        return events.computeIfAbsent(occupation.getExternalId(), key -> new Event(events.size() + 1, occupation));
+    }
+
+    private static void write(JsonWriter writer, Event event, long start, long end) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(event.id);
+        writer.name("start").value(String.valueOf(start / 1000));
+        writer.name("end").value(String.valueOf(end / 1000));
+        writer.name("title").value(event.title);
+        if (event.url != null && !event.url.isEmpty()) {
+            writer.name("url").value(event.url);
+        }
+        writer.name("allDay").value(event.allDay);
+        writer.name("backgroundColor").value(COLORS[event.id % COLORS.length]);
+        writer.name("info").value(event.info);
+        writer.endObject();
+    }
+
+}
@@ -0,0 +1,500 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import org.fenixedu.bennu.FenixEduSpaceConfiguration;
+import org.fenixedu.bennu.core.domain.User;
+import org.fenixedu.bennu.core.domain.exceptions.DomainException;
+import org.fenixedu.bennu.core.groups.DynamicGroup;
+import org.fenixedu.spaces.domain.BlueprintFile;
+import org.fenixedu.spaces.domain.Information;
+import org.fenixedu.spaces.domain.MetadataSchema;
+import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.domain.SpaceClassification;
+import org.fenixedu.spaces.domain.SpaceDomainException;
+import org.fenixedu.spaces.ui.InformationBean;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ist.fenixframework.Atomic;
+import pt.ist.fenixframework.Atomic.TxMode;
+import pt.ist.fenixframework.FenixFramework;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Creates spaces in bulk from CSV or JSON rows.
+ *
+ * Each row has the name, identification, blueprint number, allocatable capacity, area, classification absolute code and
+ * valid from date of the new space, and the path of its parent from a top level space, with each step given by name or
+ * blueprint number and separated by slashes. Any other column is a metadata field of the classification. JSON rows may also
+ * carry the blueprint content encoded in base64.
+ *
+ * Rows are checked against the compiled metadata schema of their classification before anything is written, and are then
+ * created in batches, each in its own transaction, which the framework retries on conflict. A batch that fails is created
+ * again row by row, so a bad row only fails itself. Parents are resolved in the transaction that creates the row, so rows may
+ * refer to spaces created by earlier rows.
+ */
+public class SpaceImport {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpaceImport.class);
+
+    public static final String NAME = "name";
+    public static final String IDENTIFICATION = "identification";
+    public static final String BLUEPRINT_NUMBER = "blueprintNumber";
+    public static final String ALLOCATABLE_CAPACITY = "allocatableCapacity";
+    public static final String AREA = "area";
+    public static final String CLASSIFICATION = "classification";
+    public static final String PARENT = "parent";
+    public static final String VALID_FROM = "validFrom";
+    public static final String BLUEPRINT = "blueprint";
+
+    private static final List<String> COLUMNS = Lists.newArrayList(NAME, IDENTIFICATION, BLUEPRINT_NUMBER, ALLOCATABLE_CAPACITY,
+            AREA, CLASSIFICATION, PARENT, VALID_FROM, BLUEPRINT);
+
+    private static final String PATH_SEPARATOR = "/";
+
+    public static class Row {
+
+        private final int line;
+
+        private final Map<String, String> values;
+
+        public Row(int line, Map<String, String> values) {
+            this.line = line;
+            this.values = values;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public Map<String, String> getValues() {
+            return Collections.unmodifiableMap(values);
+        }
+
+        private String get(String column) {
+            final String value = values.get(column);
+            return Strings.isNullOrEmpty(value) ? null : value.trim();
+        }
+    }
+
+    public static class Report {
+
+        private int created;
+
+        private final SortedMap<Integer, String> errors = new TreeMap<>();
+
+        public int getCreated() {
+            return created;
+        }
+
+        /**
+         * Why each row that was not imported failed, by line.
+         */
+        public SortedMap<Integer, String> getErrors() {
+            return Collections.unmodifiableSortedMap(errors);
+        }
+    }
+
+    /**
+     * A row whose values were checked against the schema of its classification.
+     */
+    private static class Checked {
+
+        private final int line;
+
+        private final InformationBean bean;
+
+        private final String parent;
+
+        private final byte[] blueprint;
+
+        private Checked(int line, InformationBean bean, String parent, byte[] blueprint) {
+            this.line = line;
+            this.bean = bean;
+            this.parent = parent;
+            this.blueprint = blueprint;
+        }
+    }
+
+    /**
+     * What a batch transaction did, only merged into the report once it commits.
+     */
+    private static class BatchResult {
+
+        private int created;
+
+        private final Map<Integer, String> errors = new HashMap<>();
+
+        private final Map<String, String> paths = new HashMap<>();
+    }
+
+    /**
+     * Reads rows from CSV text with a header line, as written by spreadsheets, with fields optionally quoted.
+     */
+    public static List<Row> readCsv(Reader reader) throws IOException {
+        final List<List<String>> records = new ArrayList<>();
+        final List<Integer> lines = new ArrayList<>();
+        List<String> record = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false, start = true;
+        int line = 1, recordLine = 1, c;
+        while ((c = reader.read()) != -1) {
+            if (start && c == '\uFEFF') {
+                continue;
+            }
+            start = false;
+            if (quoted) {
+                if (c == '"') {
+                    final int next = reader.read();
+                    if (next == '"') {
+                        field.append('"');
+                        continue;
+                    }
+                    quoted = false;
+                    if (next == -1) {
+                        break;
+                    }
+                    c = next;
+                } else {
+                    if (c == '\n') {
+                        line++;
+                    }
+                    field.append((char) c);
+                    continue;
+                }
+            }
+            if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                record.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                record.add(field.toString());
+                field.setLength(0);
+                records.add(record);
+                lines.add(recordLine);
+                record = new ArrayList<>();
+                recordLine = ++line;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+        }
+        if (field.length() > 0 || !record.isEmpty()) {
+            record.add(field.toString());
+            records.add(record);
+            lines.add(recordLine);
+        }
+
+        final List<Row> rows = new ArrayList<>();
+        if (records.isEmpty()) {
+            return rows;
+        }
+        final List<String> header = records.get(0);
+        for (int i = 1; i < records.size(); i++) {
+            final List<String> values = records.get(i);
+            if (values.size() == 1 && values.get(0).trim().isEmpty()) {
+                continue;
+            }
+            final Map<String, String> row = new LinkedHashMap<>();
+            for (int j = 0; j < header.size() && j < values.size(); j++) {
+                row.put(header.get(j).trim(), values.get(j));
+            }
+            rows.add(new Row(lines.get(i), row));
+        }
+        return rows;
+    }
+
+    /**
+     * Reads rows from a JSON array of objects, where metadata fields may also be given in a nested metadata object. Rows are
+     * numbered from one, in the order of the array.
+     */
+    public static List<Row> readJson(Reader reader) {
+        final List<Row> rows = new ArrayList<>();
+        try {
+            int line = 1;
+            for (JsonElement element : new JsonParser().parse(reader).getAsJsonArray()) {
+                final Map<String, String> values = new LinkedHashMap<>();
+                final JsonObject object = element.getAsJsonObject();
+                for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                    if (entry.getKey().equals("metadata") && entry.getValue().isJsonObject()) {
+                        for (Map.Entry<String, JsonElement> field : entry.getValue().getAsJsonObject().entrySet()) {
+                            values.put(field.getKey(), field.getValue().isJsonNull() ? null : field.getValue().getAsString());
+                        }
+                    } else {
+                        values.put(entry.getKey(), entry.getValue().isJsonNull() ? null : entry.getValue().getAsString());
+                    }
+                }
+                rows.add(new Row(line++, values));
+            }
+        } catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+            throw new SpaceDomainException("error.import.unreadable");
+        }
+        return rows;
+    }
+
+    /**
+     * Imports the given rows as the given user. Must not be called inside a transaction, since each batch commits on its own.
+     */
+    public static Report run(List<Row> rows, User user) {
+        final Report report = new Report();
+        final List<Checked> checked = check(rows, report);
+
+        final int batchSize = Math.max(1, FenixEduSpaceConfiguration.getConfiguration().spaceImportBatchSize());
+        final Map<String, String> paths = new HashMap<>();
+        for (List<Checked> batch : Lists.partition(checked, batchSize)) {
+            try {
+                merge(report, paths, create(batch, user, paths));
+            } catch (RuntimeException e) {
+                logger.warn("Import batch starting on line {} failed, importing its rows one by one", batch.get(0).line, e);
+                for (Checked row : batch) {
+                    try {
+                        merge(report, paths, create(Collections.singletonList(row), user, paths));
+                    } catch (DomainException rowFailure) {
+                        report.errors.put(row.line, rowFailure.getLocalizedMessage());
+                    } catch (RuntimeException rowFailure) {
+                        report.errors.put(row.line,
+                                new SpaceDomainException("error.import.failed", String.valueOf(rowFailure.getMessage()))
+                                        .getLocalizedMessage());
+                    }
+                }
+            }
+        }
+        return report;
+    }
+
+    private static void merge(Report report, Map<String, String> paths, BatchResult result) {
+        report.created += result.created;
+        report.errors.putAll(result.errors);
+        paths.putAll(result.paths);
+    }
+
+    @Atomic(mode = TxMode.READ)
+    private static List<Checked> check(List<Row> rows, Report report) {
+        final List<Checked> checked = new ArrayList<>();
+        for (Row row : rows) {
+            try {
+                checked.add(check(row));
+            } catch (DomainException e) {
+                report.errors.put(row.line, e.getLocalizedMessage());
+            }
+        }
+        return checked;
+    }
+
+    private static Checked check(Row row) {
+        final String name = row.get(NAME);
+        if (name == null) {
+            throw new SpaceDomainException("error.import.missing", NAME);
+        }
+        final String code = row.get(CLASSIFICATION);
+        if (code == null) {
+            throw new SpaceDomainException("error.import.missing", CLASSIFICATION);
+        }
+        final SpaceClassification classification = SpaceClassification.get(code);
+        if (classification == null) {
+            throw new SpaceDomainException("error.import.classification.unknown", code);
+        }
+
+        final InformationBean bean = new InformationBean();
+        bean.setName(name);
+        bean.setIdentification(row.get(IDENTIFICATION));
+        bean.setBlueprintNumber(row.get(BLUEPRINT_NUMBER));
+        bean.setClassification(classification);
+        try {
+            final String capacity = row.get(ALLOCATABLE_CAPACITY);
+            bean.setAllocatableCapacity(capacity == null ? null : Integer.valueOf(capacity));
+        } catch (NumberFormatException e) {
+            throw new SpaceDomainException("error.import.invalid", ALLOCATABLE_CAPACITY, row.get(ALLOCATABLE_CAPACITY));
+        }
+        try {
+            final String area = row.get(AREA);
+            bean.setArea(area == null ? null : new BigDecimal(area));
+        } catch (NumberFormatException e) {
+            throw new SpaceDomainException("error.import.invalid", AREA, row.get(AREA));
+        }
+        final String validFrom = row.get(VALID_FROM);
+        if (validFrom != null) {
+            try {
+                bean.setValidFrom(DateTimeFormat.forPattern(InformationBean.DATE_FORMAT).parseDateTime(validFrom));
+            } catch (IllegalArgumentException e) {
+                throw new SpaceDomainException("error.import.invalid", VALID_FROM, validFrom);
+            }
+        } else {
+            bean.setValidFrom(new DateTime());
+        }
+        byte[] blueprint = null;
+        if (row.get(BLUEPRINT) != null) {
+            try {
+                blueprint = Base64.getMimeDecoder().decode(row.get(BLUEPRINT));
+            } catch (IllegalArgumentException e) {
+                throw new SpaceDomainException("error.import.invalid", BLUEPRINT, "");
+            }
+        }
+
+        final MetadataSchema schema = classification.getMetadataSchema();
+        final Map<String, String> metadata = new HashMap<>();
+        for (Map.Entry<String, String> value : row.values.entrySet()) {
+            if (COLUMNS.contains(value.getKey()) || Strings.isNullOrEmpty(value.getValue())) {
+                continue;
+            }
+            final MetadataSchema.Field field =
+                    schema.getField(value.getKey()).orElseThrow(
+                            () -> new SpaceDomainException("error.import.field.unknown", code, value.getKey()));
+            final String text = value.getValue().trim();
+            if (!isValid(field.getType(), text)) {
+                throw new SpaceDomainException("error.import.invalid", field.getName(), text);
+            }
+            metadata.put(field.getName(), text);
+        }
+        bean.setMetadata(metadata);
+        return new Checked(row.line, bean, row.get(PARENT), blueprint);
+    }
+
+    private static boolean isValid(MetadataSchema.MetadataType type, String value) {
+        try {
+            switch (type) {
+            case BOOLEAN:
+                return value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false");
+            case INTEGER:
+                Integer.parseInt(value);
+                return true;
+            case BIG_DECIMAL:
+                new BigDecimal(value);
+                return true;
+            default:
+                return true;
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    @Atomic(mode = TxMode.WRITE)
+    private static BatchResult create(List<Checked> batch, User user, Map<String, String> committedPaths) {
+        final BatchResult result = new BatchResult();
+        final Map<String, String> paths = new HashMap<>(committedPaths);
+        for (Checked row : batch) {
+            final Space parent;
+            try {
+                parent = row.parent == null ? null : resolve(normalize(row.parent), paths);
+                if (parent == null ? !DynamicGroup.get("spaceSuperUsers").isMember(user) : !parent
+                        .isSpaceManagementMember(user)) {
+                    throw new SpaceDomainException("error.import.unauthorized", parent == null ? PATH_SEPARATOR : row.parent);
+                }
+            } catch (DomainException e) {
+                result.errors.put(row.line, e.getLocalizedMessage());
+                continue;
+            }
+
+            final InformationBean bean = row.bean;
+            bean.setUser(user);
+            if (row.blueprint != null) {
+                bean.setBlueprint(BlueprintFile.findOrCreate(bean.getName(), row.blueprint));
+            }
+            final Space space = new Space(parent, Information.builder(bean).build());
+            if (parent == null) {
+                space.setManagementAccessGroup(DynamicGroup.get("spaceSuperUsers"));
+                space.setOccupationsAccessGroup(DynamicGroup.get("spaceSuperUsers"));
+            }
+            final String parentPath = row.parent == null ? "" : normalize(row.parent) + PATH_SEPARATOR;
+            paths.put(parentPath + bean.getName(), space.getExternalId());
+            if (bean.getBlueprintNumber() != null) {
+                paths.put(parentPath + bean.getBlueprintNumber(), space.getExternalId());
+            }
+            result.created++;
+        }
+        result.paths.putAll(paths);
+        return result;
+    }
+
+    static String normalize(String path) {
+        final List<String> steps = new ArrayList<>();
+        for (String step : path.split(PATH_SEPARATOR)) {
+            if (!step.trim().isEmpty()) {
+                steps.add(step.trim());
+            }
+        }
+        return String.join(PATH_SEPARATOR, steps);
+    }
+
+    /**
+     * Finds the space at the given normalized path, remembering the spaces found along it.
+     */
+    static Space resolve(String path, Map<String, String> paths) {
+        final String known = paths.get(path);
+        if (known != null) {
+            final Space space = FenixFramework.getDomainObject(known);
+            if (FenixFramework.isDomainObjectValid(space) && space.isActive()) {
+                return space;
+            }
+        }
+
+        final int separator = path.lastIndexOf(PATH_SEPARATOR);
+        final String step = path.substring(separator + 1);
+        final Iterable<Space> candidates =
+                separator < 0 ? Space.getTopLevelSpaces() : resolve(path.substring(0, separator), paths).getChildren();
+        final Space found =
+                findStep(step, candidates, Space::getName, candidate -> candidate.getBlueprintNumber().orElse(null));
+        if (found == null) {
+            throw new SpaceDomainException("error.import.parent.unknown", path);
+        }
+        paths.put(path, found.getExternalId());
+        return found;
+    }
+
+    /**
+     * The candidate with the given step as blueprint number or, if there is none, the first with the given step as name.
+     */
+    static <T> T findStep(String step, Iterable<T> candidates, Function<T, String> name, Function<T, String> blueprintNumber) {
+        T found = null;
+        for (T candidate : candidates) {
+            if (step.equals(blueprintNumber.apply(candidate))) {
+                return candidate;
+            }
+            if (found == null && step.equals(name.apply(candidate))) {
+                found = candidate;
+            }
+        }
+        return found;
+    }
+
+}
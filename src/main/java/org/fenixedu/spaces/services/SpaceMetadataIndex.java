@@ -0,0 +1,316 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.fenixedu.bennu.core.signals.DomainObjectEvent;
+import org.fenixedu.bennu.core.signals.Signal;
+import org.fenixedu.spaces.domain.MetadataSchema;
+import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.domain.SpaceClassification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import pt.ist.fenixframework.FenixFramework;
+
+/**
+ * Sorted indexes of the active spaces by the value of their metadata fields, for the fields marked as indexed in the metadata
+ * spec of any classification.
+ *
+ * Spaces whose information changed are reindexed before the next query, and the whole index is rebuilt after any classification
+ * changes and periodically, to follow information that became valid or expired. Numbers are indexed as decimals, so integer and
+ * decimal fields compare by value.
+ */
+public class SpaceMetadataIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpaceMetadataIndex.class);
+
+    private static int rank(Object value) {
+        return value instanceof Boolean ? 0 : value instanceof BigDecimal ? 1 : 2;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static final Comparator<Object> VALUE_ORDER = (o1, o2) -> {
+        final int rank = Integer.compare(rank(o1), rank(o2));
+        return rank != 0 ? rank : ((Comparable) o1).compareTo(o2);
+    };
+
+    private static Object normalize(Object value) {
+        if (value instanceof BigDecimal) {
+            return value;
+        }
+        if (value instanceof Number) {
+            return new BigDecimal(value.toString());
+        }
+        return value instanceof Boolean ? value : value.toString();
+    }
+
+    private static class Snapshot {
+
+        private final Map<String, NavigableMap<Object, Set<String>>> fields = new HashMap<>();
+
+        private final Map<String, Map<String, Object>> spaces = new HashMap<>();
+
+        private Snapshot() {
+            for (SpaceClassification classification : SpaceClassification.all()) {
+                for (MetadataSchema.Field field : classification.getMetadataSchema().getFields().values()) {
+                    if (field.isIndexed()) {
+                        fields.putIfAbsent(field.getName(), new TreeMap<>(VALUE_ORDER));
+                    }
+                }
+            }
+            if (!fields.isEmpty()) {
+                Space.getSpaces().forEach(this::index);
+            }
+        }
+
+        private boolean update(String spaceId) {
+            final Space space = FenixFramework.getDomainObject(spaceId);
+            if (!FenixFramework.isDomainObjectValid(space)) {
+                remove(spaceId);
+                return false;
+            }
+            index(space);
+            return true;
+        }
+
+        private void index(Space space) {
+            remove(space.getExternalId());
+            if (!space.isActive()) {
+                return;
+            }
+            final MetadataSchema schema = space.getClassification().getMetadataSchema();
+            final Map<String, Object> values = new HashMap<>();
+            for (Map.Entry<String, NavigableMap<Object, Set<String>>> field : fields.entrySet()) {
+                if (schema.contains(field.getKey())) {
+                    final Optional<Object> value;
+                    try {
+                        value = space.getMetadata(field.getKey());
+                    } catch (RuntimeException e) {
+                        // a stored value that no longer matches the type of its field, such as after the spec changed
+                        logger.warn("Not indexing {} of space {}: {}", field.getKey(), space.getExternalId(), e.getMessage());
+                        continue;
+                    }
+                    if (value.isPresent()) {
+                        final Object normalized = normalize(value.get());
+                        field.getValue().computeIfAbsent(normalized, key -> new HashSet<>()).add(space.getExternalId());
+                        values.put(field.getKey(), normalized);
+                    }
+                }
+            }
+            if (!values.isEmpty()) {
+                spaces.put(space.getExternalId(), values);
+            }
+        }
+
+        private void remove(String spaceId) {
+            final Map<String, Object> values = spaces.remove(spaceId);
+            if (values != null) {
+                for (Map.Entry<String, Object> value : values.entrySet()) {
+                    final NavigableMap<Object, Set<String>> index = fields.get(value.getKey());
+                    final Set<String> ids = index.get(value.getValue());
+                    ids.remove(spaceId);
+                    if (ids.isEmpty()) {
+                        index.remove(value.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    private static final DomainSnapshot<Snapshot> snapshot = new DomainSnapshot<>(Snapshot::new, Snapshot::update);
+
+    static {
+        Signal.registerWithoutTransaction(SpaceClassification.CLASSIFICATION_CHANGED_SIGNAL, event -> snapshot.invalidate());
+        Signal.registerWithoutTransaction(Space.INFORMATION_CHANGED_SIGNAL,
+                (DomainObjectEvent<Space> event) -> snapshot.changed(event.getInstance().getExternalId()));
+    }
+
+    /**
+     * Whether the given field is indexed by any classification.
+     */
+    public static boolean isIndexed(String field) {
+        return snapshot.read(current -> current.fields.containsKey(field));
+    }
+
+    /**
+     * Number of active spaces with each value of the given indexed field, in ascending order of value.
+     */
+    public static Map<Object, Integer> getDistribution(String field) {
+        return snapshot.read(current -> {
+            final Map<Object, Integer> distribution = new LinkedHashMap<>();
+            final NavigableMap<Object, Set<String>> index = current.fields.get(field);
+            if (index != null) {
+                for (Map.Entry<Object, Set<String>> entry : index.entrySet()) {
+                    distribution.put(entry.getKey(), entry.getValue().size());
+                }
+            }
+            return distribution;
+        });
+    }
+
+    public static Query query() {
+        return new Query();
+    }
+
+    private static class Condition {
+
+        private final String field;
+
+        private final Object from;
+
+        private final Object to;
+
+        private Condition(String field, Object from, Object to) {
+            this.field = field;
+            this.from = from == null ? null : normalize(from);
+            this.to = to == null ? null : normalize(to);
+        }
+
+        private boolean accepts(Object value) {
+            if (value == null) {
+                return false;
+            }
+            final Object normalized = normalize(value);
+            if (from != null && (rank(from) != rank(normalized) || VALUE_ORDER.compare(from, normalized) > 0)) {
+                return false;
+            }
+            return to == null || rank(to) == rank(normalized) && VALUE_ORDER.compare(normalized, to) <= 0;
+        }
+
+        private Set<String> lookup(NavigableMap<Object, Set<String>> index) {
+            final NavigableMap<Object, Set<String>> range;
+            if (from != null && to != null) {
+                range = index.subMap(from, true, to, true);
+            } else if (from != null) {
+                range = index.tailMap(from, true);
+            } else if (to != null) {
+                range = index.headMap(to, true);
+            } else {
+                range = index;
+            }
+            final Set<String> ids = new HashSet<>();
+            for (Map.Entry<Object, Set<String>> entry : range.entrySet()) {
+                if (accepts(entry.getKey())) {
+                    ids.addAll(entry.getValue());
+                }
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Conjunction of conditions on metadata fields. Conditions on indexed fields are answered by the index, from the most
+     * selective one, and the others are checked on the spaces that satisfy those.
+     */
+    public static class Query {
+
+        private final List<Condition> conditions = new ArrayList<>();
+
+        private Query() {
+        }
+
+        public Query equalTo(String field, Object value) {
+            conditions.add(new Condition(field, value, value));
+            return this;
+        }
+
+        public Query isTrue(String field) {
+            return equalTo(field, Boolean.TRUE);
+        }
+
+        /**
+         * Values between the given ones, both inclusive, where a null bound is open.
+         */
+        public Query between(String field, Object from, Object to) {
+            conditions.add(new Condition(field, from, to));
+            return this;
+        }
+
+        public Query atLeast(String field, Object from) {
+            return between(field, from, null);
+        }
+
+        public Query atMost(String field, Object to) {
+            return between(field, null, to);
+        }
+
+        public Set<Space> find() {
+            final List<Condition> unindexed = new ArrayList<>();
+            final List<Set<String>> matches = new ArrayList<>();
+            snapshot.read(current -> {
+                for (Condition condition : conditions) {
+                    final NavigableMap<Object, Set<String>> index = current.fields.get(condition.field);
+                    if (index == null) {
+                        unindexed.add(condition);
+                    } else {
+                        matches.add(condition.lookup(index));
+                    }
+                }
+                return null;
+            });
+
+            Set<String> ids = null;
+            matches.sort(Comparator.comparing(Set::size));
+            for (Set<String> match : matches) {
+                if (ids == null) {
+                    ids = match;
+                } else {
+                    ids.retainAll(match);
+                }
+            }
+
+            final Set<Space> spaces = new HashSet<>();
+            if (ids == null) {
+                Space.getSpaces().filter(space -> accepts(space, unindexed)).forEach(spaces::add);
+            } else {
+                for (String id : ids) {
+                    final Space space = FenixFramework.getDomainObject(id);
+                    if (FenixFramework.isDomainObjectValid(space) && space.isActive() && accepts(space, unindexed)) {
+                        spaces.add(space);
+                    }
+                }
+            }
+            return Collections.unmodifiableSet(spaces);
+        }
+
+        private static boolean accepts(Space space, List<Condition> conditions) {
+            for (Condition condition : conditions) {
+                if (!condition.accepts(space.getMetadata(condition.field).orElse(null))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.fenixedu.bennu.FenixEduSpaceConfiguration;
+import org.fenixedu.commons.i18n.I18N;
+import org.fenixedu.spaces.domain.Space;
+
+import pt.ist.fenixframework.Atomic;
+import pt.ist.fenixframework.Atomic.TxMode;
+
+/**
+ * Computes a value for every space of a subtree in parallel, handing the values over in tree order.
+ *
+ * A reader takes from each space what its value is computed from. The given space is read in the calling thread, and the
+ * subtree of each of its children in parallel, in a read transaction of its own, so every subtree is seen in a single snapshot,
+ * though different subtrees may see different ones. Values are then computed from what was read, without touching the
+ * domain, in a fork-join pool of the traversal's own, and each receives the value computed for its parent. Spaces are visited
+ * in pre-order, with the active children of each space ordered by name, so the order does not depend on how the work was
+ * split.
+ */
+public class SpaceTreeTraversal {
+
+    public static interface Visitor<T> {
+        void visit(T value) throws IOException;
+    }
+
+    private static final Comparator<Space> CHILDREN_ORDER = Comparator.comparing(Space::getName).thenComparing(
+            Space::getExternalId);
+
+    private static class Node<R> {
+
+        private final R read;
+
+        private final List<Node<R>> children;
+
+        private Node(R read, List<Node<R>> children) {
+            this.read = read;
+            this.children = children;
+        }
+    }
+
+    private static <R> Node<R> read(Space space, Function<Space, R> reader) {
+        final R read = reader.apply(space);
+        final List<Node<R>> children =
+                getChildren(space).stream().map(child -> read(child, reader)).collect(Collectors.toList());
+        return new Node<>(read, children);
+    }
+
+    private static List<Space> getChildren(Space space) {
+        return space.getChildren().stream().sorted(CHILDREN_ORDER).collect(Collectors.toList());
+    }
+
+    /**
+     * Reads the subtree of the given space in the locale of the traversal, as pool threads do not inherit it.
+     */
+    @Atomic(mode = TxMode.READ)
+    private static <R> Node<R> readInTransaction(Space space, Function<Space, R> reader, Locale locale) {
+        final Locale previous = I18N.getLocale();
+        I18N.setLocale(locale);
+        try {
+            return read(space, reader);
+        } finally {
+            I18N.setLocale(previous);
+        }
+    }
+
+    private static class Subtree<R, T> extends RecursiveTask<List<T>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node<R> node;
+
+        private final T parent;
+
+        private final BiFunction<R, T, T> function;
+
+        private Subtree(Node<R> node, T parent, BiFunction<R, T, T> function) {
+            this.node = node;
+            this.parent = parent;
+            this.function = function;
+        }
+
+        @Override
+        protected List<T> compute() {
+            final T value = function.apply(node.read, parent);
+            final List<Subtree<R, T>> children = subtrees(node.children, value, function);
+            invokeAll(children);
+
+            final List<T> values = new ArrayList<>();
+            values.add(value);
+            for (Subtree<R, T> child : children) {
+                values.addAll(child.join());
+            }
+            return values;
+        }
+    }
+
+    private static class ChildSubtree<R, T> extends RecursiveTask<List<T>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Space child;
+
+        private final Function<Space, R> reader;
+
+        private final Locale locale;
+
+        private final T parent;
+
+        private final BiFunction<R, T, T> function;
+
+        private ChildSubtree(Space child, Function<Space, R> reader, Locale locale, T parent, BiFunction<R, T, T> function) {
+            this.child = child;
+            this.reader = reader;
+            this.locale = locale;
+            this.parent = parent;
+            this.function = function;
+        }
+
+        @Override
+        protected List<T> compute() {
+            // the transaction ends before any subtask is forked, so this thread never runs other work within it
+            final Node<R> node = readInTransaction(child, reader, locale);
+            return new Subtree<>(node, parent, function).compute();
+        }
+    }
+
+    private static <R, T> List<Subtree<R, T>> subtrees(List<Node<R>> nodes, T parent, BiFunction<R, T, T> function) {
+        return nodes.stream().map(node -> new Subtree<>(node, parent, function)).collect(Collectors.toList());
+    }
+
+    /**
+     * Reads the given space and every active space below it, applies the function to what was read from each, giving it the
+     * value computed for the parent (null for the given space), and hands the values to the visitor in tree order.
+     *
+     * The reader may use nothing of the calling thread but the locale, as it runs in threads of the pool, and the function must
+     * not use the domain, as it runs outside any transaction. The subtree of each child of the given space is visited as soon
+     * as it and the subtrees before it are done, while the rest is still being read and computed.
+     */
+    public static <R, T> void traverse(Space space, Function<Space, R> reader, BiFunction<R, T, T> function,
+            Visitor<T> visitor) throws IOException {
+        final T value = function.apply(reader.apply(space), null);
+        final List<Space> children = getChildren(space);
+        visitor.visit(value);
+
+        final Locale locale = I18N.getLocale();
+        final int parallelism = FenixEduSpaceConfiguration.getConfiguration().spaceTraversalParallelism();
+        final ForkJoinPool pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        try {
+            final List<ChildSubtree<R, T>> subtrees =
+                    children.stream().map(child -> new ChildSubtree<>(child, reader, locale, value, function))
+                            .collect(Collectors.toList());
+            for (ChildSubtree<R, T> subtree : subtrees) {
+                pool.execute(subtree);
+            }
+            for (ChildSubtree<R, T> subtree : subtrees) {
+                for (T childValue : subtree.join()) {
+                    visitor.visit(childValue);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+}
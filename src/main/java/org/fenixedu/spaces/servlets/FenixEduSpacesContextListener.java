@@ -22,13 +22,29 @@ import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
 
+import org.fenixedu.spaces.services.BlueprintRenderService;
+import org.fenixedu.spaces.services.BlueprintRenderingPipeline;
+import org.fenixedu.spaces.services.DomainSnapshot;
+import org.fenixedu.spaces.services.ExportJobs;
+import org.fenixedu.spaces.services.PhotoProcessingPipeline;
+
 @WebListener
 public class FenixEduSpacesContextListener implements ServletContextListener {
     @Override
     public void contextInitialized(ServletContextEvent event) {
+        BlueprintRenderService.start();
+        BlueprintRenderingPipeline.start();
+        PhotoProcessingPipeline.start();
+        ExportJobs.start();
+        DomainSnapshot.start();
     }
 
     @Override
     public void contextDestroyed(ServletContextEvent event) {
+        BlueprintRenderingPipeline.shutdown();
+        PhotoProcessingPipeline.shutdown();
+        ExportJobs.shutdown();
+        BlueprintRenderService.shutdown();
+        DomainSnapshot.shutdown();
     }
 }
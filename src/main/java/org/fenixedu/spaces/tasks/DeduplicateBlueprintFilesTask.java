@@ -0,0 +1,86 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.tasks;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.fenixedu.bennu.core.domain.Bennu;
+import org.fenixedu.bennu.scheduler.custom.CustomTask;
+import org.fenixedu.spaces.domain.BlueprintFile;
+import org.fenixedu.spaces.domain.Information;
+import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.domain.submission.SpacePhoto;
+import org.fenixedu.spaces.domain.submission.SpacePhotoSubmission;
+
+/**
+ * Computes the content hash of the blueprints and photos stored before content was hashed, and makes every space version with
+ * the same blueprint content share a single file, deleting the copies that are left unused.
+ */
+public class DeduplicateBlueprintFilesTask extends CustomTask {
+
+    @Override
+    public void runTask() throws Exception {
+        Set<Space> spaces = new HashSet<>(Bennu.getInstance().getSpaceSet());
+        spaces.addAll(Bennu.getInstance().getDeletedSpaceSet());
+
+        Map<String, BlueprintFile> blueprints = new HashMap<>();
+        int hashed = 0, shared = 0, deleted = 0;
+        for (Space space : spaces) {
+            for (Information information : space.versions()) {
+                BlueprintFile blueprint = information.getBlueprint();
+                if (blueprint == null) {
+                    continue;
+                }
+                if (blueprint.getContentHash() == null) {
+                    blueprint.setContentHash(BlueprintFile.hash(blueprint.getContent()));
+                    hashed++;
+                }
+                if (blueprint.getBennuBlueprint() == null) {
+                    blueprint.setBennuBlueprint(Bennu.getInstance());
+                }
+                BlueprintFile kept = blueprints.putIfAbsent(blueprint.getContentHash(), blueprint);
+                if (kept != null && kept != blueprint) {
+                    information.setBlueprint(kept);
+                    shared++;
+                    if (blueprint.getReferenceCount() == 0) {
+                        blueprint.delete();
+                        deleted++;
+                    }
+                }
+            }
+        }
+        taskLog("Hashed %d blueprints, shared %d and deleted %d copies\n", hashed, shared, deleted);
+
+        int photos = 0;
+        for (Space space : spaces) {
+            for (SpacePhotoSubmission submission : space.getSpacePhotoSubmissionSet()) {
+                SpacePhoto photo = submission.getPhoto();
+                if (photo != null && photo.getContentHash() == null) {
+                    photo.setContentHash(SpacePhoto.hash(photo.getContent()));
+                    photos++;
+                }
+            }
+        }
+        taskLog("Hashed %d photos\n", photos);
+    }
+
+}
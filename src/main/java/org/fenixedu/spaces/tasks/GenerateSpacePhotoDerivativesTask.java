@@ -0,0 +1,55 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.tasks;
+
+import java.io.IOException;
+
+import org.fenixedu.bennu.core.domain.Bennu;
+import org.fenixedu.bennu.scheduler.custom.CustomTask;
+import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.domain.submission.SpacePhoto;
+import org.fenixedu.spaces.domain.submission.SpacePhotoSubmission;
+import org.fenixedu.spaces.services.PhotoProcessingPipeline;
+
+/**
+ * Normalizes and generates the scaled down versions of the photos that were not processed on submission, either because they
+ * were uploaded before photos were processed or because the processing queue was full.
+ */
+public class GenerateSpacePhotoDerivativesTask extends CustomTask {
+
+    @Override
+    public void runTask() throws Exception {
+        int generated = 0;
+        for (Space space : Bennu.getInstance().getSpaceSet()) {
+            for (SpacePhotoSubmission submission : space.getSpacePhotoSubmissionSet()) {
+                SpacePhoto photo = submission.getPhoto();
+                if (photo != null && photo.getDerivativeSet().isEmpty()) {
+                    try {
+                        PhotoProcessingPipeline.process(photo);
+                        generated++;
+                    } catch (IOException e) {
+                        taskLog("Could not read photo %s: %s\n", photo.getExternalId(), e.getMessage());
+                    }
+                }
+            }
+        }
+        taskLog("Generated derivatives for %d photos\n", generated);
+    }
+
+}
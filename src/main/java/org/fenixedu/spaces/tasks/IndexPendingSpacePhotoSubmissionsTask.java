@@ -0,0 +1,45 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.tasks;
+
+import org.fenixedu.bennu.core.domain.Bennu;
+import org.fenixedu.bennu.scheduler.custom.CustomTask;
+import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.domain.submission.SpacePhotoSubmission;
+
+/**
+ * Adds the photo submissions that were already pending to the global set of pending submissions.
+ */
+public class IndexPendingSpacePhotoSubmissionsTask extends CustomTask {
+
+    @Override
+    public void runTask() throws Exception {
+        int indexed = 0;
+        for (Space space : Bennu.getInstance().getSpaceSet()) {
+            for (SpacePhotoSubmission submission : space.getSpacePhotoSubmissionPendingSet()) {
+                if (submission.getBennuPending() == null) {
+                    submission.setBennuPending(Bennu.getInstance());
+                    indexed++;
+                }
+            }
+        }
+        taskLog("Indexed %d pending submissions\n", indexed);
+    }
+
+}
@@ -168,13 +168,13 @@ public class InitializeRoomClassficationTask extends CustomTask {
 
     public void changeOrCreate(SpaceClassification parent, String name_EN, String name_PT, String code) {
         final LocalizedString name = new LocalizedString.Builder().with(LocalePT, name_PT).with(LocaleEN, name_EN).build();
-        for (SpaceClassification classification : Bennu.getInstance().getRootClassificationSet()) {
-            if (classification.getCode().equals(code)) {
-                classification.setName(name);
-                final String nameEn = classification.getName().getContent(LocaleEN);
-                classification.setMetadataSpecs(getMetadataSpec(nameEn));
-                return;
-            }
+        final SpaceClassification classification = SpaceClassification.get(code);
+        if (classification != null) {
+            classification.setName(name);
+            final String nameEn = classification.getName().getContent(LocaleEN);
+            classification.setMetadataSpecs(getMetadataSpec(nameEn));
+            classification.changed();
+            return;
         }
         final SpaceClassification spaceClassification = new SpaceClassification(code, name, parent, null);
         spaceClassification.setMetadataSpecs(getMetadataSpec(code));
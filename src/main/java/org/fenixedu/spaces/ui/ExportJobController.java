@@ -0,0 +1,109 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Optional;
+
+import javax.servlet.UnavailableException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.fenixedu.bennu.core.domain.User;
+import org.fenixedu.bennu.core.security.Authenticate;
+import org.fenixedu.bennu.spring.portal.BennuSpringController;
+import org.fenixedu.spaces.services.ExportJobs;
+import org.fenixedu.spaces.services.ExportJobs.Export;
+import org.fenixedu.spaces.services.ExportJobs.ExportJob;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+@BennuSpringController(SpacesController.class)
+@RequestMapping("/spaces/exports")
+public class ExportJobController {
+
+    /**
+     * Queues the export and redirects to the page that follows its progress, or answers 503 if too many exports are waiting.
+     */
+    static String submit(HttpServletRequest request, HttpServletResponse response, String filename, String contentType,
+            Export export) throws IOException {
+        try {
+            ExportJob job = ExportJobs.submit(getOwner(request), filename, contentType, export);
+            return "redirect:/spaces/exports/" + job.getId();
+        } catch (UnavailableException e) {
+            response.setHeader("Retry-After", String.valueOf(e.getUnavailableSeconds()));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return null;
+        }
+    }
+
+    private static String getOwner(HttpServletRequest request) {
+        User user = Authenticate.getUser();
+        return user != null ? user.getUsername() : request.getSession().getId();
+    }
+
+    @RequestMapping(value = "/{job}", method = RequestMethod.GET)
+    public String view(@PathVariable String job, Model model, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        Optional<ExportJob> exportJob = ExportJobs.get(job, getOwner(request));
+        if (!exportJob.isPresent()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
+        model.addAttribute("job", exportJob.get());
+        return "spaces/export";
+    }
+
+    @ResponseBody
+    @RequestMapping(value = "/{job}/status", method = RequestMethod.GET, produces = "application/json; charset=utf-8")
+    public String status(@PathVariable String job, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        Optional<ExportJob> exportJob = ExportJobs.get(job, getOwner(request));
+        if (!exportJob.isPresent()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
+        response.setHeader("Cache-Control", "no-cache");
+        return exportJob.get().toJson().toString();
+    }
+
+    @RequestMapping(value = "/{job}/download", method = RequestMethod.GET)
+    public void download(@PathVariable String job, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        Optional<ExportJob> exportJob = ExportJobs.get(job, getOwner(request));
+        Optional<File> file = exportJob.flatMap(ExportJob::getFile);
+        if (!file.isPresent()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        response.setContentType(exportJob.get().getContentType());
+        response.setHeader("Content-disposition", "attachment; filename=" + exportJob.get().getFilename());
+        response.setHeader("Content-Length", String.valueOf(file.get().length()));
+        try (OutputStream outputStream = response.getOutputStream()) {
+            Files.copy(file.get().toPath(), outputStream);
+        }
+    }
+
+}
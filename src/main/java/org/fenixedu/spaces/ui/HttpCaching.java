@@ -0,0 +1,143 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.ui;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.joda.time.DateTime;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+
+/**
+ * Validators and conditional request handling for content that never changes under a given ETag, such as photos and
+ * rendered blueprints.
+ */
+public class HttpCaching {
+
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    private static final String REVALIDATE = "public, max-age=0, must-revalidate";
+
+    /**
+     * Sets the validators of the response and answers 304 if the client already holds the content. Must be called before
+     * the content is loaded.
+     *
+     * @param etag
+     *            strong entity tag of the content, unquoted
+     * @param lastModified
+     *            when the content was last changed, or null if that is not known
+     * @param versioned
+     *            whether the URL was built with the current version of the content, in which case the response may be kept
+     *            forever
+     * @return true if the response was answered with 304 and nothing else should be written
+     */
+    public static boolean checkNotModified(HttpServletRequest request, HttpServletResponse response, String etag,
+            DateTime lastModified, boolean versioned) {
+        final String quotedEtag = "\"" + etag + "\"";
+        response.setHeader("ETag", quotedEtag);
+        response.setHeader("Cache-Control", versioned ? IMMUTABLE : REVALIDATE);
+        if (lastModified != null) {
+            response.setDateHeader("Last-Modified", lastModified.getMillis());
+        }
+
+        final String ifNoneMatch = request.getHeader("If-None-Match");
+        final boolean notModified;
+        if (!Strings.isNullOrEmpty(ifNoneMatch)) {
+            notModified = matches(ifNoneMatch, quotedEtag);
+        } else if (lastModified != null) {
+            final long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+            notModified = ifModifiedSince >= 0 && lastModified.getMillis() / 1000 <= ifModifiedSince / 1000;
+        } else {
+            notModified = false;
+        }
+
+        if (notModified) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+        return notModified;
+    }
+
+    /**
+     * Whether an If-Range header, if any, still refers to the given content.
+     */
+    public static boolean isRangeApplicable(HttpServletRequest request, String etag, DateTime lastModified) {
+        final String ifRange = request.getHeader("If-Range");
+        if (Strings.isNullOrEmpty(ifRange)) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals("\"" + etag + "\"");
+        }
+        final long date = getDateHeader(request, "If-Range");
+        return lastModified != null && date >= 0 && lastModified.getMillis() / 1000 <= date / 1000;
+    }
+
+    /**
+     * Reads a single byte range from the Range header.
+     *
+     * @return the first and last byte positions of the range, or null if there is no single satisfiable range
+     */
+    public static long[] getRange(HttpServletRequest request, long length) {
+        final String range = request.getHeader("Range");
+        if (Strings.isNullOrEmpty(range) || !range.startsWith("bytes=") || range.indexOf(',') >= 0 || length == 0) {
+            return null;
+        }
+        final String spec = range.substring("bytes=".length()).trim();
+        final int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            final String first = spec.substring(0, dash).trim();
+            final String last = spec.substring(dash + 1).trim();
+            final long start;
+            final long end;
+            if (first.isEmpty()) {
+                start = Math.max(0, length - Long.parseLong(last));
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(length - 1, Long.parseLong(last));
+            }
+            return start <= end && start < length ? new long[] { start, end } : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String quotedEtag) {
+        for (String candidate : Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatch)) {
+            if (candidate.equals("*") || candidate.equals(quotedEtag) || candidate.equals("W/" + quotedEtag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+}
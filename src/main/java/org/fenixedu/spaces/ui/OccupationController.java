@@ -24,8 +24,10 @@ import java.util.stream.Collectors;
 
 import org.fenixedu.bennu.core.security.Authenticate;
 import org.fenixedu.bennu.spring.portal.BennuSpringController;
+import org.fenixedu.spaces.domain.SpaceClassification;
 import org.fenixedu.spaces.domain.occupation.Occupation;
 import org.fenixedu.spaces.domain.occupation.requests.OccupationRequest;
+import org.fenixedu.spaces.services.MetadataColumnCatalogue;
 import org.fenixedu.spaces.ui.services.OccupationService;
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
@@ -69,7 +71,8 @@ public class OccupationController {
     }
 
     public String searchSpaces(Model model, @RequestParam String events, @RequestParam String config, @RequestParam(
-            required = false) OccupationRequest request, @RequestParam(required = false) String mails) {
+            required = false) OccupationRequest request, @RequestParam(required = false) String mails, Integer capacity,
+            SpaceClassification classification) {
         final List<Interval> intervals = parseIntervals(events);
         model.addAttribute("events", events);
         model.addAttribute("config", config);
@@ -77,14 +80,19 @@ public class OccupationController {
         if (mails != null) {
             model.addAttribute("emails", mails);
         }
-        model.addAttribute("freeSpaces", occupationService.searchFreeSpaces(intervals, Authenticate.getUser()));
+        model.addAttribute("capacity", capacity);
+        model.addAttribute("classification", classification);
+        model.addAttribute("classifications", MetadataColumnCatalogue.getClassifications());
+        model.addAttribute("freeSpaces", occupationService.searchFreeSpaces(intervals, Authenticate.getUser(),
+                capacity == null ? 0 : capacity, classification, null));
         return "occupations/searchcreate";
     }
 
     @RequestMapping(value = "search-create", method = RequestMethod.POST)
     public String searchSpaces(Model model, @RequestParam String events, @RequestParam String config, @RequestParam(
-            required = false) OccupationRequest request) {
-        return searchSpaces(model, events, config, request, null);
+            required = false) OccupationRequest request, @RequestParam(required = false) Integer capacity, @RequestParam(
+            required = false) SpaceClassification classification) {
+        return searchSpaces(model, events, config, request, null, capacity, classification);
     }
 
     @RequestMapping(value = "create", method = RequestMethod.POST)
@@ -107,7 +115,7 @@ public class OccupationController {
             return "redirect:/spaces/occupations/list";
         } catch (Exception e) {
             model.addAttribute("errorMessage", e.getMessage());
-            return searchSpaces(model, events, config, request, emails);
+            return searchSpaces(model, events, config, request, emails, null, null);
         }
     }
 
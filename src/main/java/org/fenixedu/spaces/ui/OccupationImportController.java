@@ -0,0 +1,68 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.ui;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.fenixedu.bennu.core.domain.exceptions.DomainException;
+import org.fenixedu.bennu.core.security.Authenticate;
+import org.fenixedu.bennu.spring.portal.BennuSpringController;
+import org.fenixedu.spaces.services.SpaceImport;
+import org.fenixedu.spaces.ui.services.OccupationService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.multipart.MultipartFile;
+
+@BennuSpringController(SpacesController.class)
+@RequestMapping("/spaces/occupations/import")
+public class OccupationImportController {
+
+    @Autowired
+    OccupationService occupationService;
+
+    @RequestMapping(method = RequestMethod.GET)
+    public String form() {
+        return "occupations/import";
+    }
+
+    @RequestMapping(method = RequestMethod.POST)
+    public String importOccupations(@RequestParam MultipartFile file, @RequestParam(defaultValue = "false") boolean dryRun,
+            @RequestParam(defaultValue = "false") boolean notify, Model model) throws IOException {
+        try (Reader reader = new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8)) {
+            final String filename = file.getOriginalFilename();
+            final List<SpaceImport.Row> rows =
+                    filename != null && filename.toLowerCase().endsWith(".json") ? SpaceImport.readJson(reader) : SpaceImport
+                            .readCsv(reader);
+            model.addAttribute("filename", filename);
+            model.addAttribute("dryRun", dryRun);
+            model.addAttribute("report", occupationService.importOccupations(rows, Authenticate.getUser(), dryRun, notify));
+        } catch (DomainException e) {
+            model.addAttribute("errorMessage", e.getLocalizedMessage());
+        }
+        return "occupations/import";
+    }
+
+}
@@ -23,6 +23,7 @@ import java.io.OutputStream;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.fenixedu.bennu.core.domain.User;
@@ -121,28 +122,25 @@ public class OccupationRequestsController {
     }
 
     @RequestMapping(value = "/export", method = RequestMethod.GET)
-    public void exportAnyCampusToExcel(@RequestParam(required = false) Space campus,
-            @RequestParam(required = false) OccupationRequestState state, HttpServletResponse response) {
-        List<OccupationRequest> requests;
-
-        if (state != null) {
-            requests = occupationService.all(state, campus);
-        } else {
-            requests = occupationService.getRequestsToProcess(Authenticate.getUser(), campus);
-        }
-
+    public String exportAnyCampusToExcel(@RequestParam(required = false) Space campus,
+            @RequestParam(required = false) OccupationRequestState state, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        final User user = Authenticate.getUser();
         String filename = bundle.message("label.occupation.request.filename");
         if (campus != null) {
             filename += "_" + campus.getPresentationName();
         }
-        response.setContentType("application/vnd.ms-excel");
-        response.setHeader("Content-disposition", "attachment; filename=" + filename + ".xls");
-        try {
-            makeExcel(requests, response.getOutputStream());
-            response.flushBuffer();
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
+        return ExportJobController.submit(request, response, filename + ".xls", "application/vnd.ms-excel",
+                (job, outputStream) -> {
+                    List<OccupationRequest> requests;
+                    if (state != null) {
+                        requests = occupationService.all(state, campus);
+                    } else {
+                        requests = occupationService.getRequestsToProcess(user, campus);
+                    }
+                    job.setTotal(requests.size());
+                    makeExcel(requests, outputStream, job::progress);
+                });
     }
 
     @RequestMapping(method = RequestMethod.GET)
@@ -180,7 +178,7 @@ public class OccupationRequestsController {
                 .collect(Collectors.joining(","));
     }
 
-    private void makeExcel(List<OccupationRequest> requests, OutputStream outputStream) throws IOException {
+    private void makeExcel(List<OccupationRequest> requests, OutputStream outputStream, Runnable onLine) throws IOException {
         SheetData<OccupationRequest> data = new SheetData<OccupationRequest>(requests) {
 
             @Override
@@ -203,6 +201,7 @@ public class OccupationRequestsController {
                 }
 
                 addCell(bundle.message("label.occupation.request.owner"), ownerCellValue);
+                onLine.run();
             }
 
         };
@@ -25,6 +25,7 @@ import org.fenixedu.bennu.core.groups.DynamicGroup;
 import org.fenixedu.bennu.core.security.Authenticate;
 import org.fenixedu.bennu.spring.portal.SpringFunctionality;
 import org.fenixedu.spaces.domain.SpaceClassification;
+import org.fenixedu.spaces.services.MetadataColumnCatalogue;
 import org.fenixedu.spaces.ui.services.SpaceClassificationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.ui.Model;
@@ -55,7 +56,7 @@ public class SpaceClassificationController {
     @RequestMapping(value = "/list")
     public String listClassifications(Model model) {
         canWrite();
-        model.addAttribute("classifications", SpaceClassification.all());
+        model.addAttribute("classifications", MetadataColumnCatalogue.getClassifications());
         return "classification/list";
     }
 
@@ -100,7 +101,7 @@ public class SpaceClassificationController {
         if (newInfo == false) {
             model.addAttribute("information", scb);
         }
-        model.addAttribute("classifications", SpaceClassification.all());
+        model.addAttribute("classifications", MetadataColumnCatalogue.getClassifications());
         model.addAttribute("currentUser", Authenticate.getUser());
         return "classification/edit";
     }
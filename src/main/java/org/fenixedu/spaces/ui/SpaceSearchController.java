@@ -18,26 +18,36 @@
  */
 package org.fenixedu.spaces.ui;
 
-import java.io.ByteArrayInputStream;
+import java.awt.Rectangle;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import javax.servlet.UnavailableException;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.fenixedu.bennu.core.domain.User;
 import org.fenixedu.bennu.core.security.Authenticate;
+import org.fenixedu.bennu.io.domain.GenericFile;
 import org.fenixedu.bennu.spring.portal.SpringFunctionality;
 import org.fenixedu.spaces.domain.BlueprintFile;
-import org.fenixedu.spaces.domain.BlueprintFile.BlueprintTextRectangles;
 import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.domain.occupation.OccupantCalendarToken;
 import org.fenixedu.spaces.domain.submission.SpacePhoto;
+import org.fenixedu.spaces.domain.submission.SpacePhotoSize;
+import org.fenixedu.spaces.services.BlueprintImageFormat;
+import org.fenixedu.spaces.services.BlueprintRenderCache;
+import org.fenixedu.spaces.services.BlueprintRenderService;
 import org.fenixedu.spaces.services.ExportSpace;
+import org.fenixedu.spaces.services.FileStreamer;
+import org.fenixedu.spaces.services.ICalendarFeed;
 import org.fenixedu.spaces.services.SpaceBlueprintsDWGProcessor;
 import org.fenixedu.spaces.ui.services.OccupationService;
 import org.fenixedu.spaces.ui.services.SpacePhotoService;
@@ -50,10 +60,14 @@ import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonObject;
 
 @SpringFunctionality(app = SpacesController.class, title = "title.spaces.search")
 @RequestMapping("/spaces-view")
@@ -103,12 +117,39 @@ public class SpaceSearchController {
     @RequestMapping(value = "/schedule/{space}")
     public String schedule(@PathVariable Space space, Model model) {
         model.addAttribute("space", space);
+        User user = Authenticate.getUser();
+        if (user != null) {
+            model.addAttribute("authenticated", true);
+            OccupantCalendarToken.forUser(user).ifPresent(token -> model.addAttribute("occupantCalendarToken", token.getToken()));
+        }
         return "spaces-view/schedule";
     }
 
+    @RequestMapping(value = "/schedule/{space}/occupant-calendar", method = RequestMethod.POST)
+    public String renewOccupantCalendar(@PathVariable Space space, HttpServletResponse response) throws IOException {
+        User user = Authenticate.getUser();
+        if (user == null) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return null;
+        }
+        OccupantCalendarToken.renew(user);
+        return "redirect:/spaces-view/schedule/" + space.getExternalId();
+    }
+
+    @RequestMapping(value = "/schedule/{space}/occupant-calendar/revoke", method = RequestMethod.POST)
+    public String revokeOccupantCalendar(@PathVariable Space space, HttpServletResponse response) throws IOException {
+        User user = Authenticate.getUser();
+        if (user == null) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return null;
+        }
+        OccupantCalendarToken.revoke(user);
+        return "redirect:/spaces-view/schedule/" + space.getExternalId();
+    }
+
     @RequestMapping(value = "/schedule/{space}/events", produces = "application/json; charset=utf-8")
-    public @ResponseBody String schedule(@PathVariable Space space, @RequestParam(required = false) String start,
-            @RequestParam(required = false) String end, Model model) {
+    public void schedule(@PathVariable Space space, @RequestParam(required = false) String start,
+            @RequestParam(required = false) String end, HttpServletResponse response) throws IOException {
         DateTime beginDate;
         DateTime endDate;
 
@@ -121,30 +162,42 @@ public class SpaceSearchController {
             endDate = new DateTime(Long.parseLong(end) * 1000);
         }
 
-        return occupationService.getOccupations(space, new Interval(beginDate, endDate));
+        response.setContentType("application/json; charset=utf-8");
+        occupationService.writeOccupations(space, new Interval(beginDate, endDate), response.getWriter());
     }
 
-    private BlueprintTextRectangles getBlueprintTextRectangles(Space space, BigDecimal scale) {
-        DateTime now = new DateTime();
-
-        Space spaceWithBlueprint = SpaceBlueprintsDWGProcessor.getSuroundingSpaceMostRecentBlueprint(space);
-
-        if (spaceWithBlueprint != null) {
-            BlueprintFile mostRecentBlueprint = spaceWithBlueprint.getBlueprintFile().get();
+    @RequestMapping(value = "/schedule/{space}.ics", method = RequestMethod.GET)
+    public void scheduleCalendar(@PathVariable Space space, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        writeCalendar(ICalendarFeed.forSpace(space), false, request, response);
+    }
 
-            if (mostRecentBlueprint != null) {
+    /**
+     * Calendar of the occupations shared with the user the given token was issued to. Calendar clients do not send the
+     * session of the user, so the token in the address is what identifies them.
+     */
+    @RequestMapping(value = "/occupant/{token}.ics", method = RequestMethod.GET)
+    public void occupantCalendar(@PathVariable String token, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        Optional<User> user = OccupantCalendarToken.findUser(token);
+        if (!user.isPresent()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        writeCalendar(ICalendarFeed.forOccupant(user.get()), true, request, response);
+    }
 
-                try {
-                    final byte[] blueprintBytes = mostRecentBlueprint.getContent();
-                    final InputStream inputStream = new ByteArrayInputStream(blueprintBytes);
-                    return SpaceBlueprintsDWGProcessor.getBlueprintTextRectangles(inputStream, spaceWithBlueprint, now, false,
-                            false, true, false, scale);
-                } catch (Exception e) {
-                    return null;
-                }
-            }
+    private void writeCalendar(ICalendarFeed.Feed feed, boolean personal, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        boolean notModified = HttpCaching.checkNotModified(request, response, feed.getEtag(), null, false);
+        if (personal) {
+            response.setHeader("Cache-Control", "private, max-age=0, must-revalidate");
         }
-        return null;
+        if (notModified) {
+            return;
+        }
+        response.setContentType("text/calendar; charset=utf-8");
+        response.getWriter().write(feed.getContent());
     }
 
     private List<Space> getChildrenOrderedByName(Space space) {
@@ -163,58 +216,164 @@ public class SpaceSearchController {
         model.addAttribute("viewIdentifications", viewIdentifications);
         model.addAttribute("viewDoorNumbers", viewDoorNumbers);
         model.addAttribute("information", space.bean());
-        model.addAttribute("blueprintTextRectangles", getBlueprintTextRectangles(space, scale));
         model.addAttribute("spaces", getChildrenOrderedByName(space));
         model.addAttribute("parentSpace", space.getParent());
         model.addAttribute("currentUser", Authenticate.getUser());
         model.addAttribute("spacePhotos", photoService.getVisiblePhotos(space));
+        model.addAttribute("pendingPhotoCounts", photoService.getPendingPhotoCounts());
+        model.addAttribute("blueprintStatus", BlueprintRenderCache.getStatus(space).map(Enum::name).orElse(null));
+        Space blueprintSpace = SpaceBlueprintsDWGProcessor.getSuroundingSpaceMostRecentBlueprint(space);
+        model.addAttribute("blueprintVersion", blueprintSpace == null ? null : BlueprintRenderCache.fingerprint(blueprintSpace));
 
         return "spaces/view";
     }
 
     @RequestMapping(value = "/export/{space}", method = RequestMethod.GET)
-    public void exportCSV(@PathVariable Space space,
+    public String exportCSV(@PathVariable Space space,
             @DateTimeFormat(pattern = InformationBean.DATE_FORMAT) @RequestParam(
                     defaultValue = "#{new org.joda.time.DateTime()}") DateTime when,
-            HttpServletResponse response) throws IOException, UnavailableException {
-        String filename = space.getName() + "_info";
-        response.setContentType("application/vnd.ms-excel");
-        response.setHeader("Content-disposition", "attachment; filename=" + filename + ".xls");
-        try (OutputStream outputStream = response.getOutputStream()) {
-            ExportSpace.run(space, outputStream);
-        }
+            @RequestParam(defaultValue = "xls") String format, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        boolean csv = "csv".equalsIgnoreCase(format);
+        String filename = space.getName() + "_info" + (csv ? ".csv" : ".xls");
+        String contentType = csv ? "text/csv; charset=UTF-8" : "application/vnd.ms-excel";
+        return ExportJobController.submit(request, response, filename, contentType,
+                (job, outputStream) -> {
+                    job.setTotal(ExportSpace.count(space));
+                    ExportSpace.run(space, format, outputStream, job::progress);
+                });
     }
 
     @RequestMapping(value = "/blueprint/{space}", method = RequestMethod.GET)
     public void blueprint(@PathVariable Space space,
-            @DateTimeFormat(pattern = InformationBean.DATE_FORMAT) @RequestParam(
-                    defaultValue = "#{new org.joda.time.DateTime()}") DateTime when,
+            @DateTimeFormat(pattern = InformationBean.DATE_FORMAT) @RequestParam(required = false) DateTime when,
             @RequestParam(defaultValue = "50") BigDecimal scale,
             @RequestParam(defaultValue = "false") Boolean viewOriginalSpaceBlueprint,
             @RequestParam(defaultValue = "true") Boolean viewBlueprintNumbers,
             @RequestParam(defaultValue = "true") Boolean viewIdentifications,
-            @RequestParam(defaultValue = "false") Boolean viewDoorNumbers, HttpServletResponse response)
-            throws IOException, UnavailableException {
-
-        Boolean isToViewOriginalSpaceBlueprint = viewOriginalSpaceBlueprint;
-        Boolean isToViewBlueprintNumbers = viewBlueprintNumbers;
-        Boolean isToViewIdentifications = viewIdentifications;
-        Boolean isToViewDoorNumbers = viewDoorNumbers;
-        BigDecimal scalePercentage = scale;
-        response.setContentType("image/jpeg");
+            @RequestParam(defaultValue = "false") Boolean viewDoorNumbers, @RequestParam(required = false) Integer x,
+            @RequestParam(required = false) Integer y, @RequestParam(required = false) Integer width,
+            @RequestParam(required = false) Integer height, @RequestParam(required = false) String format,
+            @RequestParam(required = false) String v, @RequestHeader(value = "Accept", required = false) String accept,
+            HttpServletRequest request, HttpServletResponse response) throws IOException, UnavailableException {
+
+        BlueprintImageFormat imageFormat = BlueprintImageFormat.select(format, accept);
+        Rectangle viewport = x == null || y == null || width == null || height == null ? null : new Rectangle(x, y, width, height);
+        Space blueprintSpace = SpaceBlueprintsDWGProcessor.getSuroundingSpaceMostRecentBlueprint(space);
+        response.setHeader("Vary", "Accept");
+        if (blueprintSpace != null) {
+            String version = BlueprintRenderCache.fingerprint(blueprintSpace);
+            String etag =
+                    Hashing.murmur3_128()
+                            .hashString(
+                                    Joiner.on(':').useForNull("").join(version, space.getExternalId(),
+                                            when == null ? null : when.getMillis(), scale.stripTrailingZeros().toPlainString(),
+                                            viewOriginalSpaceBlueprint, viewBlueprintNumbers, viewIdentifications,
+                                            viewDoorNumbers, viewport, imageFormat), StandardCharsets.UTF_8).toString();
+            if (HttpCaching.checkNotModified(request, response, etag, null, version.equals(v))) {
+                return;
+            }
+        }
+
+        byte[] image;
+        try {
+            if (when == null
+                    && BlueprintRenderCache.isDefaultView(space, blueprintSpace, scale, viewOriginalSpaceBlueprint,
+                            viewBlueprintNumbers, viewIdentifications, viewDoorNumbers, viewport)) {
+                image = BlueprintRenderService.renderDefaultView(space, imageFormat).getImage();
+            } else {
+                image =
+                        BlueprintRenderService.render(space, when, viewOriginalSpaceBlueprint, viewBlueprintNumbers,
+                                viewIdentifications, viewDoorNumbers, scale, viewport, imageFormat);
+            }
+        } catch (UnavailableException e) {
+            response.setHeader("Retry-After", String.valueOf(e.getUnavailableSeconds()));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        response.setContentType(imageFormat.getMediaType());
         try (OutputStream outputStream = response.getOutputStream()) {
-            SpaceBlueprintsDWGProcessor.writeBlueprint(space, when, isToViewOriginalSpaceBlueprint, isToViewBlueprintNumbers,
-                    isToViewIdentifications, isToViewDoorNumbers, scalePercentage, outputStream);
+            outputStream.write(image);
+        }
+    }
+
+    /**
+     * Finds the child space whose label was clicked at (x, y) on a blueprint rendered with the given options. The viewport,
+     * if any, is given by viewportX, viewportY, width and height, as x, y, width and height are given to
+     * {@link #blueprint}.
+     */
+    @RequestMapping(value = "/blueprint/{space}/locate", method = RequestMethod.GET,
+            produces = "application/json; charset=utf-8")
+    public @ResponseBody String locateInBlueprint(@PathVariable Space space, @RequestParam int x, @RequestParam int y,
+            @DateTimeFormat(pattern = InformationBean.DATE_FORMAT) @RequestParam(required = false) DateTime when,
+            @RequestParam(defaultValue = "50") BigDecimal scale,
+            @RequestParam(defaultValue = "false") Boolean viewOriginalSpaceBlueprint,
+            @RequestParam(defaultValue = "true") Boolean viewBlueprintNumbers,
+            @RequestParam(defaultValue = "true") Boolean viewIdentifications,
+            @RequestParam(defaultValue = "false") Boolean viewDoorNumbers,
+            @RequestParam(required = false) Integer viewportX, @RequestParam(required = false) Integer viewportY,
+            @RequestParam(required = false) Integer width, @RequestParam(required = false) Integer height,
+            HttpServletResponse response) throws IOException, UnavailableException {
+        Space spaceWithBlueprint = SpaceBlueprintsDWGProcessor.getSuroundingSpaceMostRecentBlueprint(space);
+        if (spaceWithBlueprint == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return null;
         }
+        Rectangle viewport =
+                viewportX == null || viewportY == null || width == null || height == null ? null : new Rectangle(viewportX,
+                        viewportY, width, height);
+
+        JsonObject result = new JsonObject();
+        Optional<String> found;
+        if (when == null
+                && BlueprintRenderCache.isDefaultView(space, spaceWithBlueprint, scale, viewOriginalSpaceBlueprint,
+                        viewBlueprintNumbers, viewIdentifications, viewDoorNumbers, viewport)) {
+            found =
+                    BlueprintRenderService.renderDefaultView(spaceWithBlueprint, BlueprintImageFormat.getDefault()).findSpaceAt(
+                            x, y);
+        } else {
+            found =
+                    SpaceBlueprintsDWGProcessor
+                            .findSpaceAt(spaceWithBlueprint.getBlueprintFile().get(), spaceWithBlueprint,
+                                    when == null ? new DateTime() : when, viewOriginalSpaceBlueprint, viewBlueprintNumbers,
+                                    viewIdentifications, viewDoorNumbers, scale, viewport, x, y)
+                            .map(Space::getExternalId);
+        }
+        if (found.isPresent()) {
+            result.addProperty("space", found.get());
+        }
+        return result.toString();
     }
 
     @RequestMapping(value = "/photo/{spacePhoto}", method = RequestMethod.GET)
-    public void spacePhotoRender(@PathVariable SpacePhoto spacePhoto, HttpServletResponse response)
-            throws IOException, UnavailableException {
+    public void spacePhotoRender(@PathVariable SpacePhoto spacePhoto,
+            @RequestParam(defaultValue = "ORIGINAL") SpacePhotoSize size, @RequestParam(required = false) String v,
+            HttpServletRequest request, HttpServletResponse response) throws IOException, UnavailableException {
 
+        GenericFile file = spacePhoto.getFile(size);
+        String version = spacePhoto.getVersion();
+        String etag = file.getExternalId() + "-" + version;
+        if (HttpCaching.checkNotModified(request, response, etag, spacePhoto.getLastModified(), version.equals(v))) {
+            return;
+        }
+
+        long length = file.getSize();
         response.setContentType("image/jpeg");
+        response.setHeader("Accept-Ranges", "bytes");
+        long[] range =
+                HttpCaching.isRangeApplicable(request, etag, spacePhoto.getLastModified()) ? HttpCaching.getRange(request,
+                        length) : null;
         try (OutputStream outputStream = response.getOutputStream()) {
-            outputStream.write(spacePhoto.getContent());
+            if (range == null) {
+                response.setHeader("Content-Length", String.valueOf(length));
+                FileStreamer.copy(file, 0, length, outputStream);
+            } else {
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+                response.setHeader("Content-Length", String.valueOf(range[1] - range[0] + 1));
+                FileStreamer.copy(file, range[0], range[1] - range[0] + 1, outputStream);
+            }
         }
     }
 
@@ -34,9 +34,11 @@ import org.fenixedu.bennu.spring.portal.SpringApplication;
 import org.fenixedu.bennu.spring.portal.SpringFunctionality;
 import org.fenixedu.spaces.domain.Information;
 import org.fenixedu.spaces.domain.Space;
-import org.fenixedu.spaces.domain.SpaceClassification;
 import org.fenixedu.spaces.domain.submission.SpacePhoto;
+import org.fenixedu.spaces.services.MetadataColumnCatalogue;
+import org.fenixedu.spaces.ui.services.SpacePhotoService;
 import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.ModelAttribute;
@@ -54,6 +56,9 @@ import pt.ist.fenixframework.Atomic.TxMode;
 @RequestMapping("/spaces")
 public class SpacesController {
 
+    @Autowired
+    SpacePhotoService photoService;
+
     @RequestMapping(method = RequestMethod.GET)
     public String home(Model model) {
         return home(null, model);
@@ -64,6 +69,7 @@ public class SpacesController {
         model.addAttribute("spaces", space == null ? Space.getTopLevelSpaces() : getChildrenOrderedByName(space));
         model.addAttribute("currentUser", Authenticate.getUser());
         model.addAttribute("isSpaceSuperUser", DynamicGroup.get("spaceSuperUsers").isMember(Authenticate.getUser()));
+        model.addAttribute("pendingPhotoCounts", photoService.getPendingPhotoCounts());
         return "spaces/home";
     }
 
@@ -109,7 +115,7 @@ public class SpacesController {
             model.addAttribute("parentSpace", space);
         }
         model.addAttribute("information", new InformationBean());
-        model.addAttribute("classifications", SpaceClassification.all());
+        model.addAttribute("classifications", MetadataColumnCatalogue.getClassifications());
         model.addAttribute("currentUser", Authenticate.getUser());
         return "spaces/create";
     }
@@ -153,7 +159,7 @@ public class SpacesController {
         InformationBean bean = space.bean();
         bean.setValidFrom(new DateTime());
         model.addAttribute("information", bean);
-        model.addAttribute("classifications", SpaceClassification.all());
+        model.addAttribute("classifications", MetadataColumnCatalogue.getClassifications());
         model.addAttribute("currentUser", Authenticate.getUser());
         model.addAttribute("action", "/spaces/edit/" + space.getExternalId());
         return "spaces/create";
@@ -18,9 +18,15 @@
  */
 package org.fenixedu.spaces.ui.services;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -32,15 +38,21 @@ import org.fenixedu.bennu.core.security.Authenticate;
 import org.fenixedu.commons.i18n.I18N;
 import org.fenixedu.spaces.core.service.NotificationService;
 import org.fenixedu.spaces.domain.Space;
+import org.fenixedu.spaces.domain.SpaceClassification;
 import org.fenixedu.spaces.domain.SpaceDomainException;
 import org.fenixedu.spaces.domain.occupation.Occupation;
-import org.fenixedu.spaces.domain.occupation.SharedOccupation;
 import org.fenixedu.spaces.domain.occupation.config.ExplicitConfigWithSettings;
 import org.fenixedu.spaces.domain.occupation.config.ExplicitConfigWithSettings.Frequency;
 import org.fenixedu.spaces.domain.occupation.config.ExplicitConfigWithSettings.MonthlyType;
 import org.fenixedu.spaces.domain.occupation.config.OccupationConfig;
 import org.fenixedu.spaces.domain.occupation.requests.OccupationRequest;
 import org.fenixedu.spaces.domain.occupation.requests.OccupationRequestState;
+import org.fenixedu.spaces.services.AllocatableSpaceIndex;
+import org.fenixedu.spaces.services.OccupationCalendarIndex;
+import org.fenixedu.spaces.services.OccupationImport;
+import org.fenixedu.spaces.services.SpaceCalendarFeed;
+import org.fenixedu.spaces.services.SpaceImport;
+import org.fenixedu.spaces.services.SpaceMetadataIndex;
 import org.fenixedu.spaces.ui.OccupationRequestBean;
 import org.joda.time.DateTime;
 import org.joda.time.Interval;
@@ -168,13 +180,60 @@ public class OccupationService {
     }
 
     public List<Space> searchFreeSpaces(List<Interval> intervals, User user) {
-        return Space.getSpaces()
-                .filter(space -> space.getClassification().isAllocatable())
-                .filter(space -> space.isFree(intervals) && space.isOccupationMember(user))
-                .sorted((o1, o2) -> o1.getPresentationName().toLowerCase().compareTo(o2.getPresentationName().toLowerCase()))
-                .collect(Collectors.toList());
+        return searchFreeSpaces(intervals, user, 0, null, null);
+    }
+
+    /**
+     * Allocatable spaces the user can occupy that are free in all the given intervals, with at least the given capacity, of
+     * the given classification or any below it and matching the given metadata query, when those are not null.
+     *
+     * The smaller of the capacity and metadata candidate sets is filtered by the other, before checking availability and
+     * permissions on what remains. When a minimum capacity is given the spaces that fit it best come first, otherwise they are
+     * sorted by name.
+     */
+    public List<Space> searchFreeSpaces(List<Interval> intervals, User user, int minimumCapacity,
+            SpaceClassification classification, SpaceMetadataIndex.Query metadata) {
+        final Set<SpaceClassification> classifications;
+        if (classification == null) {
+            classifications = null;
+        } else {
+            classifications = new HashSet<>(classification.getAllChildren());
+            classifications.add(classification);
+        }
+
+        Stream<Space> candidates;
+        if (metadata == null) {
+            candidates = AllocatableSpaceIndex.getSpaces(minimumCapacity, classifications).stream();
+        } else {
+            final Set<Space> matches = metadata.find();
+            if (matches.size() < AllocatableSpaceIndex.count(minimumCapacity)) {
+                candidates =
+                        matches.stream()
+                                .filter(space -> space.getClassification().isAllocatable()
+                                        && capacity(space) >= minimumCapacity
+                                        && (classifications == null || classifications.contains(space.getClassification())))
+                                .sorted(Comparator.comparingInt(OccupationService::capacity).thenComparing(
+                                        SPACE_NAME_COMPARATOR));
+            } else {
+                candidates = AllocatableSpaceIndex.getSpaces(minimumCapacity, classifications).stream().filter(matches::contains);
+            }
+        }
+
+        candidates = candidates.filter(space -> space.isFree(intervals) && space.isOccupationMember(user));
+        if (minimumCapacity <= 0) {
+            candidates = candidates.sorted(SPACE_NAME_COMPARATOR);
+        }
+        return candidates.collect(Collectors.toList());
+    }
+
+    private static int capacity(Space space) {
+        final Integer capacity = space.getAllocatableCapacity();
+        return capacity == null ? 0 : capacity;
     }
 
+    private static final Comparator<Space> SPACE_NAME_COMPARATOR = (o1, o2) -> o1.getPresentationName().toLowerCase().compareTo(
+            o2.getPresentationName().toLowerCase());
+
     @Atomic
     public void createOccupation(String emails, String subject, String description, String selectedSpaces, String config,
             String events, OccupationRequest request, User user) throws Exception {
@@ -196,6 +255,22 @@ public class OccupationService {
         }
     }
 
+    /**
+     * Imports a schedule of occupations. If notify is set, each group of receivers gets a single message listing the
+     * occupations created for them.
+     */
+    public OccupationImport.Report importOccupations(List<SpaceImport.Row> rows, User user, boolean dryRun, boolean notify) {
+        final OccupationImport.Report report = OccupationImport.run(rows, user, dryRun);
+        if (notify && notificationService != null) {
+            final String subject =
+                    messageSource.getMessage("label.import.occupations.notification", new Object[0], I18N.getLocale());
+            for (Map.Entry<String, List<String>> notification : report.getNotifications().entrySet()) {
+                notificationService.sendEmail(notification.getKey(), subject, String.join("\n", notification.getValue()));
+            }
+        }
+        return report;
+    }
+
     private OccupationConfig parseConfig(String config, List<Interval> intervals) {
         JsonObject json = jsonParser.parse(config).getAsJsonObject();
 
@@ -278,8 +353,8 @@ public class OccupationService {
         Predicate<Occupation> userAndSpaceNamePredicate =
                 o -> o.getSpaces().stream().filter(s -> s.isOccupationMember(user)).filter(s -> matches(s, spaceNameForSearch))
                         .findAny().isPresent();
-        return Bennu.getInstance().getOccupationSet().stream().filter(o -> o.getClass().equals(Occupation.class))
-                .filter(userAndSpaceNamePredicate).filter(o -> o.overlaps(interval))
+        return OccupationCalendarIndex.getCandidates(interval).stream().filter(userAndSpaceNamePredicate)
+                .filter(o -> o.overlaps(interval))
                 .sorted((o1, o2) -> o2.getStart().compareTo(o1.getStart())).collect(Collectors.toList());
     }
 
@@ -388,39 +463,19 @@ public class OccupationService {
         return book;
     }
 
-    public String[] colors = new String[] { "#FF9999", "#FFCC99", "#FFFF99", "#CCFF99", "#99FF99", "#99FFFF" };
+    public String[] colors = SpaceCalendarFeed.COLORS;
 
     public String getOccupations(Space space, Interval search) {
-        JsonArray events = new JsonArray();
-        int id = 1;
-        for (Occupation occupation : space.getOccupationSet()) {
-            boolean hasEvents = false;
-            for (Interval interval : occupation.getIntervals()) {
-                if (interval.overlaps(search)) {
-                    JsonObject event = new JsonObject();
-                    String start = new Long(interval.getStart().getMillis() / 1000).toString();
-                    String end = new Long(interval.getEnd().getMillis() / 1000).toString();
-                    event.addProperty("id", id);
-                    event.addProperty("start", start);
-                    event.addProperty("end", end);
-                    event.addProperty("title", occupation.getSubject());
-                    String url = occupation.getUrl();
-                    if (url != null && !url.isEmpty()) {
-                        event.addProperty("url", url);
-                    }
-                    event.addProperty("allDay", occupation.getClass().equals(SharedOccupation.class));
-                    event.addProperty("backgroundColor", colors[id % colors.length]);
-                    event.addProperty("info", occupation.getInfo());
-                    events.add(event);
-                    if (!hasEvents) {
-                        hasEvents = true;
-                    }
-                }
-            }
-            if (hasEvents) {
-                id++;
-            }
+        StringWriter writer = new StringWriter();
+        try {
+            writeOccupations(space, search, writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return events.toString();
+        return writer.toString();
+    }
+
+    public void writeOccupations(Space space, Interval search, Writer writer) throws IOException {
+        SpaceCalendarFeed.write(space, search, writer);
     }
 }
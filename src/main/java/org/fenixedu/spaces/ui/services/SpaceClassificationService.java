@@ -70,6 +70,12 @@ public class SpaceClassificationService {
                 throw new SpaceClassificationException("error", "label.spaceClassification.noSuchClass", type);
             }
             String defaultValue = jo.get("defaultValue").getAsString();
+            JsonElement indexed = jo.get("indexed");
+            if (indexed != null && !indexed.isJsonNull()
+                    && !(indexed.isJsonPrimitive() && indexed.getAsJsonPrimitive().isBoolean())) {
+                throw new SpaceClassificationException("error", "label.spaceClassification.typeMismatch", "indexed ( "
+                        + indexed + " --> Boolean )");
+            }
             if (hasName.containsKey(name) == true) {
                 throw new SpaceClassificationException("error", "label.spaceClassification.duplicatedKey", name);
             } else {
@@ -112,12 +118,14 @@ public class SpaceClassificationService {
         }
     }
 
+    @Atomic
     public void updateClassification(SpaceClassification classification, SpaceClassificationBean bean) {
         setMetadataSpec(classification, bean.getMetadataSpec());
         setName(classification, bean.getLocalizedName());
         setCode(classification, bean.getCode());
         setParentClassification(classification, bean.getParent());
         setIsAllocatable(classification, bean.getIsAllocatable());
+        classification.changed();
     }
 
     @Atomic
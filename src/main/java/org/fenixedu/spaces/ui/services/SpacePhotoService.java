@@ -2,13 +2,17 @@ package org.fenixedu.spaces.ui.services;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.fenixedu.bennu.core.domain.User;
 import org.fenixedu.spaces.domain.Space;
 import org.fenixedu.spaces.domain.submission.SpacePhoto;
 import org.fenixedu.spaces.domain.submission.SpacePhotoSubmission;
+import org.fenixedu.spaces.services.PendingPhotoSubmissionIndex;
 import org.fenixedu.spaces.ui.PhotoSubmissionBean;
 import org.joda.time.DateTime;
 import org.springframework.beans.support.PagedListHolder;
@@ -23,20 +27,41 @@ public class SpacePhotoService {
 
     private final int PHOTOS_IN_PAGE = 10;
 
+    /**
+     * Submits a photo for the space, unless the same photo is already pending or shown for it, in which case that submission is
+     * returned and the content is not stored again.
+     */
     @Atomic
     public SpacePhotoSubmission createPhotoSubmission(PhotoSubmissionBean bean, Space space) {
+        Optional<SpacePhotoSubmission> existing = findSubmission(space, SpacePhoto.hash(bean.getSubmissionContent()));
+        if (existing.isPresent()) {
+            return existing.get();
+        }
+
         SpacePhoto photo = new SpacePhoto(bean.getSubmissionMultipartFile().getName(), bean.getSubmissionContent());
 
         return new SpacePhotoSubmission(space, bean.getSubmitor(), photo);
 
     }
 
+    /**
+     * Only the photos of the given space are searched. A photo is the stored file itself, and is approved, shown and deleted
+     * together with the submission and the space it belongs to, so the same content submitted for another space is stored
+     * again rather than shared.
+     */
+    private Optional<SpacePhotoSubmission> findSubmission(Space space, String contentHash) {
+        Stream<SpacePhoto> pending = space.getSpacePhotoSubmissionPendingSet().stream().map(SpacePhotoSubmission::getPhoto);
+        Stream<SpacePhoto> shown = space.getSpacePhotoSet().orElse(Collections.<SpacePhoto> emptySet()).stream();
+        return Stream.concat(pending, shown).filter(photo -> contentHash.equals(photo.getContentHash()))
+                .map(SpacePhoto::getSubmission).filter(Objects::nonNull).findAny();
+    }
+
     public List<SpacePhotoSubmission> getAllSpacePhotoSubmissionsToProcess(Space space) {
-        Set<Space> allSpaces = space.getChildTree();
-        List<SpacePhotoSubmission> allPendingPhotos = allSpaces.stream().map(s -> s.getSpacePhotoSubmissionPendingSet())
-                .flatMap(set -> set.stream()).collect(Collectors.toList());
-        return allPendingPhotos.stream().sorted(SpacePhotoSubmission.COMPARATOR_BY_INSTANT.reversed())
-                .collect(Collectors.toList());
+        return PendingPhotoSubmissionIndex.getPendingSubmissions(space);
+    }
+
+    public Map<String, Integer> getPendingPhotoCounts() {
+        return PendingPhotoSubmissionIndex.getPendingCounts();
     }
 
     public List<SpacePhotoSubmission> getSpacePhotoSubmissionsToProcess(Space space) {
@@ -106,7 +131,7 @@ public class SpacePhotoService {
         Space space = spacePhotoSubmission.getSpacePending();
         spacePhotoSubmission.setRejectionMessage(rejectionMessage);
         spacePhotoSubmission.setReviewer(reviewer);
-        space.removeSpacePhotoSubmissionPending(spacePhotoSubmission);
+        spacePhotoSubmission.setSpacePending(null);
         space.addSpacePhotoSubmissionArchived(spacePhotoSubmission);
     }
 
@@ -116,7 +141,7 @@ public class SpacePhotoService {
         Space space = spacePhotoSubmission.getSpacePending();
         space.addSpacePhoto(spacePhotoSubmission.getPhoto());
         spacePhotoSubmission.setReviewer(reviewer);
-        space.removeSpacePhotoSubmissionPending(spacePhotoSubmission);
+        spacePhotoSubmission.setSpacePending(null);
 
     }
 
@@ -163,9 +163,10 @@ ${portal.angularToolkit()}
 			<div class="container-fluid" id=fieldtable">
 				<div class="row">
 				  <div class="col-md-3"><b><spring:message code="label.spaces.name"/></b></div>
-				  <div class="col-md-4"><b><spring:message code="label.spaces.classification.description"/></b></div>
+				  <div class="col-md-3"><b><spring:message code="label.spaces.classification.description"/></b></div>
 				  <div class="col-md-1"><b><spring:message code="label.spaces.classification.type"/></b></div>
 				  <div class="col-md-1"><b><spring:message code="label.spaces.classification.required"/></b></div>
+				  <div class="col-md-1"><b><spring:message code="label.spaces.classification.indexed"/></b></div>
 				  <div class="col-md-2"><b><spring:message code="label.spaces.classification.defaultValue"/></b></div>
 				  <div class="col-md-1"></div>
 				</div>
@@ -173,7 +174,7 @@ ${portal.angularToolkit()}
 				<div ng-repeat="fieldDef in fieldDefs | orderBy:'inherited'">
 				<div class="row"  ng-hide="fieldDef.inactive === true">
 				  <div class="col-md-3">{{fieldDef.name}}</div>
-				  <div class="col-md-4">
+				  <div class="col-md-3">
 				  	<input type="text" ng-localized-string="fieldDef.description" required-any class='form-control' ng-readonly='fieldDef.inherited'/>
 				  </div>
 					<div class="col-md-1">
@@ -184,6 +185,9 @@ ${portal.angularToolkit()}
 				  <div class="col-md-1">
 				  <input type="checkbox" ng-disabled='{{fieldDef.inherited}}' ng-model="fieldDef.required"/>
 				  </div>
+				  <div class="col-md-1">
+				  <input type="checkbox" ng-disabled='{{fieldDef.inherited}}' ng-model="fieldDef.indexed"/>
+				  </div>
 				  <div class="col-md-2">
 				  <input class="form-control" ng-model="fieldDef.defaultValue" ng-readonly='{{fieldDef.inherited}}'/>
 				  </div>
@@ -35,6 +35,8 @@
 
 <spring:url var="createUrl" value="/spaces/occupations/create"/>
 <a href="${createUrl}"><spring:message code="title.create.occupation"/></a>
+<spring:url var="importUrl" value="/spaces/occupations/import"/>
+<a href="${importUrl}"><spring:message code="link.occupations.import"/></a>
 
 <h2><spring:message code="label.filters"/></h2>
 
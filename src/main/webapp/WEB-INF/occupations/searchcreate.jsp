@@ -280,6 +280,35 @@
 
 <h3><spring:message code="title.create.occupation.choose.space"/></h3>
 
+<spring:url var="searchUrl" value="/spaces/occupations/search-create"/>
+<form class="form-inline" role="form" id="filter-spaces-form" method="POST" action="${searchUrl}">
+  <input type="hidden" name="events" value="<c:out value='${events}'/>"/>
+  <input type="hidden" name="config" value="<c:out value='${config}'/>"/>
+  <c:if test="${not empty request}">
+	<input type="hidden" name="request" value="${request.externalId}"/>
+  </c:if>
+  <div class="form-group">
+	<label for="filter-capacity"><spring:message code="label.spaces.allocatableCapacity"/></label>
+	<input type="number" min="0" class="form-control" name="capacity" id="filter-capacity" value="${capacity}"/>
+  </div>
+  <div class="form-group">
+	<label for="filter-classification"><spring:message code="label.spaces.classification"/></label>
+	<select class="form-control" name="classification" id="filter-classification">
+		<option value=""></option>
+		<c:forEach var="classificationOption" items="${classifications}">
+			<c:set var="classificationName" value="${classificationOption.absoluteCode} - ${classificationOption.name.content}"/>
+			<c:if test="${empty classificationOption.absoluteCode}">
+				<c:set var="classificationName" value="${classificationOption.name.content}"/>
+			</c:if>
+			<option value="${classificationOption.externalId}" ${classificationOption == classification ? 'selected' : ''}>
+				<c:out value="${classificationName}"/>
+			</option>
+		</c:forEach>
+	</select>
+  </div>
+  <input type="submit" class="btn btn-default" value="<spring:message code="label.search"/>"/>
+</form>
+
 <form role="form" id="choose-space-form">
   <div class="form-group">
 	<label for="choose-space"></label>
@@ -54,7 +54,7 @@
             <c:set var="subject" value="${photo.submission.submitor}" />
             <c:set var="reviewer" value="${photo.submission.reviewer}" />
             <c:set var="date" value="${photo.submission.created}" />
-            <spring:url var="spacePhotoUrl" value="/spaces-view/photo/${photo.externalId}" />
+            <spring:url var="spacePhotoUrl" value="/spaces-view/photo/${photo.externalId}?size=MEDIUM&v=${photo.version}" />
             <spring:url var="viewUrl" value="/spaces-view/view/${space.externalId}" />
             <spring:url var="formUrl" value="/spaces/photos/${photo.externalId}" />
             <tr>
@@ -71,7 +71,7 @@
 			<c:set var="photo" value="${photoSubmission.photo}" />
 			<c:set var="subject" value="${photoSubmission.submitor}" />
 			<c:set var="date" value="${photoSubmission.created}" />
-  			<spring:url var="spacePhotoUrl" value="/spaces-view/photo/${photo.externalId}" />
+  			<spring:url var="spacePhotoUrl" value="/spaces-view/photo/${photo.externalId}?size=MEDIUM&v=${photo.version}" />
   			<spring:url var="spaceUrl" value="/spaces-view/view/${photoSubmission.spacePending.externalId}" />
   			<spring:url var="formUrl" value="/spaces/photos/${photoSubmission.externalId}" />
 			<tr>
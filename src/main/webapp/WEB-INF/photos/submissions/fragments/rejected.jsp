@@ -52,7 +52,7 @@
                 <c:set var="photo" value="${photoSubmission.photo}" />
                 <c:set var="date" value="${photoSubmission.created}" />
                 <c:set var="space" value="${photoSubmission.spaceArchived}" />
-                <spring:url var="spacePhotoUrl" value="/spaces-view/photo/${photo.externalId}" />
+                <spring:url var="spacePhotoUrl" value="/spaces-view/photo/${photo.externalId}?size=MEDIUM&v=${photo.version}" />
                 <spring:url var="viewUrl" value="/spaces-view/view/${space.externalId}" />
                 <spring:url var="formUrl" value="/spaces/photos/my/${photoSubmission.externalId}" />
                 <tr>
@@ -99,4 +99,30 @@
 </div>
 
 <h3><c:out value="${space.presentationName}"/></h3>
+<spring:url var="calendarUrl" value="/spaces-view/schedule/${space.externalId}.ics"/>
+<p><a href="${calendarUrl}"><spring:message code="link.space.schedule.subscribe"/></a></p>
+<c:if test="${authenticated}">
+	<spring:url var="renewOccupantCalendarUrl" value="/spaces-view/schedule/${space.externalId}/occupant-calendar"/>
+	<spring:url var="revokeOccupantCalendarUrl" value="/spaces-view/schedule/${space.externalId}/occupant-calendar/revoke"/>
+	<c:choose>
+		<c:when test="${not empty occupantCalendarToken}">
+			<spring:url var="occupantCalendarUrl" value="/spaces-view/occupant/${occupantCalendarToken}.ics"/>
+			<p>
+				<a href="${occupantCalendarUrl}"><spring:message code="link.space.schedule.occupant.subscribe"/></a>
+				<span class="help-block"><spring:message code="label.space.schedule.occupant.secret"/></span>
+			</p>
+			<form method="POST" action="${renewOccupantCalendarUrl}" class="form-inline" style="display: inline">
+				<button type="submit" class="btn btn-default btn-sm"><spring:message code="label.space.schedule.occupant.renew"/></button>
+			</form>
+			<form method="POST" action="${revokeOccupantCalendarUrl}" class="form-inline" style="display: inline">
+				<button type="submit" class="btn btn-danger btn-sm"><spring:message code="label.space.schedule.occupant.revoke"/></button>
+			</form>
+		</c:when>
+		<c:otherwise>
+			<form method="POST" action="${renewOccupantCalendarUrl}">
+				<button type="submit" class="btn btn-default btn-sm"><spring:message code="label.space.schedule.occupant.create"/></button>
+			</form>
+		</c:otherwise>
+	</c:choose>
+</c:if>
 <div id="calendar"></div>
@@ -0,0 +1,68 @@
+<%--
+
+    Copyright © 2014 Instituto Superior Técnico
+
+    This file is part of FenixEdu Spaces.
+
+    FenixEdu Spaces is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FenixEdu Spaces is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+
+--%>
+<!DOCTYPE html> 
+<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core"%>
+<%@ taglib prefix="spring" uri="http://www.springframework.org/tags" %>
+
+<spring:url var="statusUrl" value="/spaces/exports/${job.id}/status" />
+<spring:url var="downloadUrl" value="/spaces/exports/${job.id}/download" />
+
+<div class="page-header">
+  <h1><spring:message code="title.space.management"/><small><spring:message code="title.export"/></small></h1>
+</div>
+
+<p><c:out value="${job.filename}" /></p>
+
+<div id="export-running">
+	<p><spring:message code="label.export.running" /> <span id="export-processed">${job.processed}</span><span id="export-total"></span></p>
+	<div class="progress">
+		<div id="export-progress" class="progress-bar progress-bar-striped active" role="progressbar" style="width: 100%"></div>
+	</div>
+</div>
+<div id="export-done" class="hidden">
+	<a class="btn btn-primary" href="${downloadUrl}"><i class="glyphicon glyphicon-floppy-save"></i> <spring:message code="label.export.download" /></a>
+</div>
+<div id="export-failed" class="alert alert-danger hidden"><spring:message code="label.export.failed" /></div>
+
+<script type="text/javascript">
+	$(document).ready(function() {
+		function poll() {
+			$.getJSON("${statusUrl}", function(job) {
+				$("#export-processed").text(job.processed);
+				if (job.total >= 0) {
+					$("#export-total").text(" / " + job.total);
+					$("#export-progress").css("width", (job.total == 0 ? 100 : Math.round(100 * job.processed / job.total)) + "%");
+				}
+				if (job.state == "DONE") {
+					$("#export-running").addClass("hidden");
+					$("#export-done").removeClass("hidden");
+					window.location = "${downloadUrl}";
+				} else if (job.state == "FAILED") {
+					$("#export-running").addClass("hidden");
+					$("#export-failed").removeClass("hidden");
+				} else {
+					setTimeout(poll, 2000);
+				}
+			});
+		}
+		poll();
+	});
+</script>
@@ -82,7 +82,7 @@
 								<a href="${editUrl}" class="btn btn-default" title="<spring:message code="label.space.edit"/>"><span class="glyphicon glyphicon-pencil"></span></a>
 								<a href="${createSubSpaceUrl}" class="btn btn-default" title="<spring:message code="label.space.create"/>"><span class="glyphicon glyphicon-plus-sign"></span></a>
 								<a href="${manageAccessUrl}" class="btn btn-default" title="<spring:message code="label.space.access"/>"><span class="glyphicon glyphicon-lock"></span></a>	
-								<a href="${managePhotosUrl}" class="btn btn-default" title="<spring:message code="label.space.review.photo"/>"><span class="glyphicon glyphicon-picture"></span></a>
+								<a href="${managePhotosUrl}" class="btn btn-default" title="<spring:message code="label.space.review.photo"/>"><span class="glyphicon glyphicon-picture"></span><c:if test="${pendingPhotoCounts[space.externalId] > 0}"> <span class="badge">${pendingPhotoCounts[space.externalId]}</span></c:if></a>
 							</c:if>
 							<c:if test="${space.isOccupationMember(currentUser)}">
 								<a href="${manageOccupantsUrl}" class="btn btn-default" title="<spring:message code="label.space.occupants"/>"><span class="glyphicon glyphicon-user"></span></a>	
@@ -120,9 +120,11 @@
 </div>
 
 <spring:url var="createUrl" value="/spaces/create/${space.externalId}"/>
+<spring:url var="importUrl" value="/spaces/import"/>
 
 <c:if test='${isSpaceSuperUser || (space != null && space.isSpaceManagementMember(currentUser))}'>
 	<div>
 		<a href="${createUrl}" class="btn btn-success"><spring:message code="link.space.create"></spring:message></a>
+		<a href="${importUrl}" class="btn btn-default"><spring:message code="link.space.import"></spring:message></a>
 	</div>
 </c:if>
@@ -0,0 +1,71 @@
+<%--
+
+    Copyright © 2014 Instituto Superior Técnico
+
+    This file is part of FenixEdu Spaces.
+
+    FenixEdu Spaces is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    FenixEdu Spaces is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+
+--%>
+<!DOCTYPE html> 
+<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core"%>
+<%@ taglib prefix="spring" uri="http://www.springframework.org/tags" %>
+
+<spring:url var="importUrl" value="/spaces/import" />
+
+<div class="page-header">
+  <h1><spring:message code="title.space.management"/><small><spring:message code="title.import"/></small></h1>
+</div>
+
+<c:if test="${not empty errorMessage}">
+	<div class="alert alert-danger"><c:out value="${errorMessage}"/></div>
+</c:if>
+
+<c:if test="${not empty report}">
+	<h3><c:out value="${filename}"/></h3>
+	<div class="alert alert-success"><spring:message code="label.import.created" arguments="${report.created}"/></div>
+	<c:if test="${not empty report.errors}">
+		<table class="table">
+			<thead>
+				<tr>
+					<th><spring:message code="label.import.line"/></th>
+					<th><spring:message code="label.import.error"/></th>
+				</tr>
+			</thead>
+			<tbody>
+				<c:forEach var="error" items="${report.errors}">
+					<tr>
+						<td>${error.key}</td>
+						<td><c:out value="${error.value}"/></td>
+					</tr>
+				</c:forEach>
+			</tbody>
+		</table>
+	</c:if>
+</c:if>
+
+<form class="form-horizontal" role="form" method="POST" action="${importUrl}" enctype="multipart/form-data">
+	<div class="form-group">
+		<label for="import-file" class="col-sm-2 control-label"><spring:message code="label.import.file"/></label>
+		<div class="col-sm-10">
+			<input type="file" name="file" id="import-file" accept=".csv,.json" required/>
+			<p class="help-block"><spring:message code="label.import.help"/></p>
+		</div>
+	</div>
+	<div class="form-group">
+		<div class="col-sm-offset-2 col-sm-10">
+			<button type="submit" class="btn btn-primary"><spring:message code="label.import.submit"/></button>
+		</div>
+	</div>
+</form>
@@ -91,7 +91,7 @@
   						<div class="carousel-inner" role="listbox">
   						<c:set var="i" value="1"/>
   							<c:forEach var="spacePhoto" items="${spacePhotos}">
-  								<spring:url var="spacePhotoUrl" value="/spaces-view/photo/${spacePhoto.externalId}" />
+  								<spring:url var="spacePhotoUrl" value="/spaces-view/photo/${spacePhoto.externalId}?size=MEDIUM&v=${spacePhoto.version}" />
   								<c:choose>
   									<c:when test="${i eq 1}">
   										<div class="item active">
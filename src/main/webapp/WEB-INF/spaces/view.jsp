@@ -160,29 +160,38 @@
 				<c:set var="blueprintUrl" value="${blueprintUrl}&viewIdentifications=${vIds}"/>
 				<c:set var="blueprintUrl" value="${blueprintUrl}&viewOriginalSpaceBlueprint=${vOrigSpaceBP}"/>
 				<c:set var="blueprintUrl" value="${blueprintUrl}&scale=${theScale}"/>
+				<c:if test="${not empty blueprintVersion}">
+					<c:set var="blueprintUrl" value="${blueprintUrl}&v=${blueprintVersion}"/>
+				</c:if>
 				</tr>
 				<tr>
 				<td colspan="100%">
-					<img src="${blueprintUrl}" usemap="#roomLinksMap"/>
-					<c:if test="${not empty blueprintTextRectangles}">
-						<map id ="roomLinksMap" name="roomLinksMap">
-							<c:forEach var="blueprintTextRectanglesEntry" items="${blueprintTextRectangles}">
-								<c:set var="blueprintSpace" value="${blueprintTextRectanglesEntry.key}"/>
-								<c:forEach var="blueprintTextRectangle" items="${blueprintTextRectanglesEntry.value}">
-									<c:set var="p1" value="${blueprintTextRectangle.p1}"/>				
-									<c:set var="p2" value="${blueprintTextRectangle.p2}" />				
-									<c:set var="p3" value="${blueprintTextRectangle.p3}" />				
-									<c:set var="p4" value="${blueprintTextRectangle.p4}" />
-									<c:set var="coords" value="${p1.x},${p1.y},${p2.x},${p2.y},${p3.x},${p3.y},${p4.x},${p4.y}"/>
-									<c:set var="urlToCoords" value="${viewUrl}/${blueprintSpace.externalId}"/>
-									<c:if test="${not empty scale}">
-										<c:set var="urlToCoords" value="${urlToCoords}?scale=${scale}"/>				
-									</c:if>
-									<area shape="poly" coords="${coords}" href="${urlToCoords}"/>
-								</c:forEach>
-							</c:forEach>
-						</map>
+					<spring:url var="locateUrl" value="/spaces-view/blueprint/${space.externalId}/locate" />
+					<c:if test="${blueprintStatus == 'FAILED'}">
+						<div class="alert alert-danger"><spring:message code="label.spaces.blueprint.invalid" /></div>
 					</c:if>
+					<img id="blueprint" src="${blueprintUrl}" style="cursor: pointer;"/>
+					<script type="text/javascript">
+						$(document).ready(function() {
+							$("#blueprint").on("click", function(event) {
+								var offset = $(this).offset();
+								var position = {
+									x : Math.round(event.pageX - offset.left),
+									y : Math.round(event.pageY - offset.top),
+									scale : "${theScale}",
+									viewOriginalSpaceBlueprint : "${vOrigSpaceBP}",
+									viewBlueprintNumbers : "${vBlueprintNum}",
+									viewIdentifications : "${vIds}",
+									viewDoorNumbers : "${vDoorNum}"
+								};
+								$.getJSON("${locateUrl}", position, function(result) {
+									if (result.space) {
+										window.location.href = "${viewUrl}/" + result.space + "<c:if test="${not empty scale}">?scale=${scale}</c:if>";
+									}
+								});
+							});
+						});
+					</script>
 					</td>
 				</tr>
 				<tr>
@@ -205,7 +214,7 @@
   						<div class="carousel-inner" role="listbox">
   						<c:set var="i" value="1"/>
   							<c:forEach var="spacePhoto" items="${spacePhotos}">
-  								<spring:url var="spacePhotoUrl" value="/spaces-view/photo/${spacePhoto.externalId}" />
+  								<spring:url var="spacePhotoUrl" value="/spaces-view/photo/${spacePhoto.externalId}?size=MEDIUM&v=${spacePhoto.version}" />
   								<c:choose>
   									<c:when test="${i eq 1}">
   										<div class="item active">
@@ -278,5 +287,6 @@
 	</div>
 </div>
 <spring:url var="exportUrl" value="/spaces-view/export/${space.externalId}" />
-<p><a href="${exportUrl}"><i class="glyphicon glyphicon-floppy-save"></i> <spring:message code="label.spaces.Export" /></a></p>
+<p><a href="${exportUrl}"><i class="glyphicon glyphicon-floppy-save"></i> <spring:message code="label.spaces.Export" /></a>
+<a href="${exportUrl}?format=csv"><i class="glyphicon glyphicon-floppy-save"></i> <spring:message code="label.spaces.Export.csv" /></a></p>
 
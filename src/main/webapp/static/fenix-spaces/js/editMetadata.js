@@ -71,6 +71,7 @@ app.controller('MetadataController', [ '$scope','$timeout', '$modal', '$log','$t
 			name : trimmedKey,
 			description : {},
 			required : false,
+			indexed : false,
 			defaultValue : "",
 			type : "java.lang.String"
 		};
@@ -0,0 +1,94 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+
+public class TestMetadataSchema {
+
+    private static final MetadataSchema SCHEMA = new MetadataSchema(new JsonParser().parse("["
+            + "{\"name\":\"description\",\"type\":\"java.lang.String\"},"
+            + "{\"name\":\"doorNumber\",\"type\":\"java.lang.Integer\"},"
+            + "{\"name\":\"area\",\"type\":\"java.math.BigDecimal\"},"
+            + "{\"name\":\"ageQualitity\",\"type\":\"java.lang.Boolean\"},"
+            + "{\"name\":\"area\",\"type\":\"java.lang.String\"}]"));
+
+    private static Object[] decode(String metadata) {
+        return SCHEMA.decode(new JsonParser().parse(metadata));
+    }
+
+    @Test
+    public void testDecode() {
+        final Object[] values =
+                decode("{\"description\":\"1.23\",\"doorNumber\":\"40\",\"area\":12.50,\"ageQualitity\":true,\"other\":1}");
+        assertEquals(Optional.of("1.23"), SCHEMA.get(values, "description"));
+        assertEquals(Optional.of(40), SCHEMA.get(values, "doorNumber"));
+        assertEquals(Optional.of(new BigDecimal("12.50")), SCHEMA.get(values, "area"));
+        assertEquals(Optional.of(true), SCHEMA.get(values, "ageQualitity"));
+        assertFalse(SCHEMA.get(values, "other").isPresent());
+    }
+
+    @Test
+    public void testDecodeMissingValues() {
+        final Object[] values = decode("{\"doorNumber\":null}");
+        assertFalse(SCHEMA.get(values, "description").isPresent());
+        assertFalse(SCHEMA.get(values, "doorNumber").isPresent());
+
+        assertFalse(SCHEMA.get(SCHEMA.decode(JsonNull.INSTANCE), "area").isPresent());
+        assertFalse(SCHEMA.get(SCHEMA.decode(null), "area").isPresent());
+        assertFalse(SCHEMA.get(decode("[1, 2]"), "area").isPresent());
+    }
+
+    @Test
+    public void testDecodeInvalidValues() {
+        final Object[] values = decode("{\"description\":{\"floor\":1},\"doorNumber\":\"forty\",\"area\":\"12,5\"}");
+        assertThrows(NumberFormatException.class, () -> SCHEMA.get(values, "doorNumber"));
+        assertThrows(NumberFormatException.class, () -> SCHEMA.get(values, "area"));
+        assertThrows(UnsupportedOperationException.class, () -> SCHEMA.get(values, "description"));
+        assertFalse(SCHEMA.get(values, "ageQualitity").isPresent());
+    }
+
+    @Test
+    public void testFirstDeclarationWins() {
+        assertEquals(4, SCHEMA.getFields().size());
+        assertEquals(MetadataSchema.MetadataType.BIG_DECIMAL, SCHEMA.getField("area").get().getType());
+        assertTrue(SCHEMA.contains("ageQualitity"));
+    }
+
+    private static void assertThrows(Class<? extends RuntimeException> expected, Runnable runnable) {
+        try {
+            runnable.run();
+        } catch (RuntimeException e) {
+            assertEquals(expected, e.getClass());
+            return;
+        }
+        throw new AssertionError("expected " + expected.getName());
+    }
+
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestAllocatableSpaceIndex {
+
+    @Test
+    public void testFirst() {
+        final int[] capacities = { 0, 10, 20, 20, 20, 35 };
+        assertEquals(0, AllocatableSpaceIndex.first(capacities, 0));
+        assertEquals(1, AllocatableSpaceIndex.first(capacities, 1));
+        assertEquals(1, AllocatableSpaceIndex.first(capacities, 10));
+        assertEquals(2, AllocatableSpaceIndex.first(capacities, 20));
+        assertEquals(5, AllocatableSpaceIndex.first(capacities, 21));
+        assertEquals(6, AllocatableSpaceIndex.first(capacities, 36));
+        assertEquals(0, AllocatableSpaceIndex.first(capacities, -5));
+    }
+
+    @Test
+    public void testFirstEmpty() {
+        assertEquals(0, AllocatableSpaceIndex.first(new int[0], 10));
+    }
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.fenixedu.spaces.services.BlueprintSpatialIndex.Grid;
+import org.junit.Test;
+
+public class TestBlueprintSpatialIndex {
+
+    private static List<Integer> query(Grid grid, double minX, double minY, double maxX, double maxY) {
+        final BitSet matches = grid.query(minX, minY, maxX, maxY);
+        final List<Integer> result = new ArrayList<>();
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            result.add(i);
+        }
+        return result;
+    }
+
+    /**
+     * A 10 by 10 drawing of unit squares, plus a line across the whole of it.
+     */
+    private static Grid drawing() {
+        final List<double[]> bounds = new ArrayList<>();
+        for (int x = 0; x < 10; x++) {
+            for (int y = 0; y < 10; y++) {
+                bounds.add(new double[] { x * 10, y * 10, x * 10 + 1, y * 10 + 1 });
+            }
+        }
+        bounds.add(new double[] { 0, 45, 91, 45 });
+        return new Grid(bounds);
+    }
+
+    @Test
+    public void testQueryWindow() {
+        assertEquals(Arrays.asList(22, 23, 32, 33), query(drawing(), 15, 15, 35, 35));
+    }
+
+    @Test
+    public void testQueryEdges() {
+        assertEquals(Arrays.asList(0, 1, 10, 11), query(drawing(), 1, 1, 10, 10));
+    }
+
+    @Test
+    public void testQueryObjectSpanningCells() {
+        assertEquals(Arrays.asList(100), query(drawing(), 55, 44, 56, 46));
+        assertEquals(Arrays.asList(44, 100), query(drawing(), 40, 40, 42, 45));
+    }
+
+    @Test
+    public void testQueryOutside() {
+        assertTrue(query(drawing(), 100, 100, 200, 200).isEmpty());
+        assertTrue(query(drawing(), -10, -10, -1, 50).isEmpty());
+        assertTrue(query(drawing(), 2, 2, 9, 9).isEmpty());
+    }
+
+    @Test
+    public void testQueryAll() {
+        assertEquals(101, query(drawing(), -1000, -1000, 1000, 1000).size());
+    }
+
+    @Test
+    public void testDegenerate() {
+        assertTrue(query(new Grid(new ArrayList<>()), 0, 0, 10, 10).isEmpty());
+
+        final Grid point = new Grid(Arrays.asList(new double[] { 5, 5, 5, 5 }, new double[] { 5, 5, 5, 5 }));
+        assertEquals(Arrays.asList(0, 1), query(point, 5, 5, 5, 5));
+        assertTrue(query(point, 5.5, 5, 6, 6).isEmpty());
+    }
+
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.fenixedu.spaces.domain.occupation.config.ExplicitConfigWithSettings;
+import org.fenixedu.spaces.domain.occupation.config.ExplicitConfigWithSettings.Frequency;
+import org.fenixedu.spaces.domain.occupation.config.ExplicitConfigWithSettings.MonthlyType;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
+import org.junit.Test;
+
+public class TestICalendarFeed {
+
+    private static final DateTimeZone ZONE = DateTimeZone.forID("Europe/Lisbon");
+
+    private static final LocalTime START = new LocalTime(10, 0);
+
+    private static final LocalTime END = new LocalTime(12, 0);
+
+    private static List<LocalDate> dates(String... dates) {
+        final List<LocalDate> result = new ArrayList<>();
+        for (String date : dates) {
+            result.add(LocalDate.parse(date));
+        }
+        return result;
+    }
+
+    /**
+     * The intervals the occupation form creates for the given dates.
+     */
+    private static List<Interval> intervals(List<LocalDate> dates) {
+        final List<Interval> intervals = new ArrayList<>();
+        for (LocalDate date : dates) {
+            intervals.add(new Interval(date.toDateTime(START, ZONE), date.toDateTime(END, ZONE)));
+        }
+        return intervals;
+    }
+
+    private static ExplicitConfigWithSettings config(Frequency frequency, int every, List<Integer> weekdays,
+            MonthlyType monthlyType, List<Interval> intervals) {
+        return new ExplicitConfigWithSettings(intervals.get(0).getStart(), intervals.get(intervals.size() - 1).getEnd(),
+                Boolean.FALSE, every, frequency, weekdays, monthlyType, intervals);
+    }
+
+    @Test
+    public void testWeekly() {
+        final List<Integer> weekdays = Arrays.asList(3, 1);
+        final List<LocalDate> dates =
+                dates("2014-09-15", "2014-09-17", "2014-09-29", "2014-10-01", "2014-10-13", "2014-10-15", "2014-10-27",
+                        "2014-10-29");
+        final ExplicitConfigWithSettings config = config(Frequency.WEEKLY, 2, weekdays, null, intervals(dates));
+
+        assertEquals("FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,WE;WKST=MO;COUNT=8",
+                ICalendarFeed.getRecurrenceRule(config, config.getIntervals(), ZONE));
+        assertEquals(dates, ICalendarFeed.expand(config, Frequency.WEEKLY, 2, Arrays.asList(1, 3), dates.get(0), 8));
+    }
+
+    @Test
+    public void testWeeklyStartingMidWeek() {
+        final List<LocalDate> dates = dates("2014-09-17", "2014-09-22", "2014-09-24", "2014-09-29");
+        final ExplicitConfigWithSettings config = config(Frequency.WEEKLY, 1, Arrays.asList(1, 3), null, intervals(dates));
+
+        assertEquals("FREQ=WEEKLY;INTERVAL=1;BYDAY=MO,WE;WKST=MO;COUNT=4",
+                ICalendarFeed.getRecurrenceRule(config, config.getIntervals(), ZONE));
+    }
+
+    @Test
+    public void testMonthlyDayOfWeek() {
+        final List<LocalDate> dates = dates("2014-09-09", "2014-10-14", "2014-11-11", "2014-12-09", "2015-01-13");
+        final ExplicitConfigWithSettings config =
+                config(Frequency.MONTHLY, 1, null, MonthlyType.DAY_OF_WEEK, intervals(dates));
+
+        assertEquals("FREQ=MONTHLY;INTERVAL=1;BYDAY=2TU;COUNT=5",
+                ICalendarFeed.getRecurrenceRule(config, config.getIntervals(), ZONE));
+        assertEquals(dates, ICalendarFeed.expand(config, Frequency.MONTHLY, 1, null, dates.get(0), 5));
+    }
+
+    @Test
+    public void testMonthlyFifthWeekdaySkipsMonths() {
+        final List<LocalDate> dates = dates("2014-09-30", "2014-12-30", "2015-03-31", "2015-06-30");
+        final ExplicitConfigWithSettings config =
+                config(Frequency.MONTHLY, 1, null, MonthlyType.DAY_OF_WEEK, intervals(dates));
+
+        assertEquals("FREQ=MONTHLY;INTERVAL=1;BYDAY=5TU;COUNT=4",
+                ICalendarFeed.getRecurrenceRule(config, config.getIntervals(), ZONE));
+        assertEquals(dates, ICalendarFeed.expand(config, Frequency.MONTHLY, 1, null, dates.get(0), 4));
+    }
+
+    @Test
+    public void testYearlyLeapDay() {
+        final List<LocalDate> dates = dates("2012-02-29", "2016-02-29", "2020-02-29");
+        final ExplicitConfigWithSettings config = config(Frequency.YEARLY, 1, null, null, intervals(dates));
+
+        assertEquals("FREQ=YEARLY;INTERVAL=1;COUNT=3", ICalendarFeed.getRecurrenceRule(config, config.getIntervals(), ZONE));
+        assertEquals(dates, ICalendarFeed.expand(config, Frequency.YEARLY, 1, null, dates.get(0), 3));
+    }
+
+    @Test
+    public void testIntervalsNotProducedBySettings() {
+        final List<LocalDate> dates = dates("2014-09-15", "2014-09-17", "2014-10-01");
+        final ExplicitConfigWithSettings missing =
+                config(Frequency.WEEKLY, 1, Arrays.asList(1, 3), null, intervals(dates));
+        assertNull(ICalendarFeed.getRecurrenceRule(missing, missing.getIntervals(), ZONE));
+
+        final List<Interval> intervals = intervals(dates("2014-09-15", "2014-09-17"));
+        intervals.set(1, intervals.get(1).withEnd(intervals.get(1).getEnd().plusHours(1)));
+        final ExplicitConfigWithSettings longer = config(Frequency.WEEKLY, 1, Arrays.asList(1, 3), null, intervals);
+        assertNull(ICalendarFeed.getRecurrenceRule(longer, longer.getIntervals(), ZONE));
+    }
+
+}
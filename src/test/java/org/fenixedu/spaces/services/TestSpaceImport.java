@@ -0,0 +1,124 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import org.fenixedu.spaces.services.SpaceImport.Row;
+import org.junit.Test;
+
+public class TestSpaceImport {
+
+    private static List<Row> readCsv(String csv) throws IOException {
+        return SpaceImport.readCsv(new StringReader(csv));
+    }
+
+    @Test
+    public void testReadCsvHeader() throws IOException {
+        final List<Row> rows = readCsv("\uFEFFname, parent ,area\r\nRoom 1,Campus/Building,12.5\r\nRoom 2,,\r\n");
+        assertEquals(2, rows.size());
+        assertEquals("Room 1", rows.get(0).getValues().get("name"));
+        assertEquals("Campus/Building", rows.get(0).getValues().get("parent"));
+        assertEquals("12.5", rows.get(0).getValues().get("area"));
+        assertEquals("", rows.get(1).getValues().get("parent"));
+    }
+
+    @Test
+    public void testReadCsvLines() throws IOException {
+        final List<Row> rows = readCsv("name,area\nRoom 1,1\n\nRoom 2,2\nRoom 3");
+        assertEquals(3, rows.size());
+        assertEquals(2, rows.get(0).getLine());
+        assertEquals(4, rows.get(1).getLine());
+        assertEquals(5, rows.get(2).getLine());
+        assertEquals("Room 3", rows.get(2).getValues().get("name"));
+    }
+
+    @Test
+    public void testReadCsvQuoted() throws IOException {
+        final List<Row> rows = readCsv("name,description\n\"Room, 1\",\"said \"\"hi\"\"\"\n\"\",\"\"\n");
+        assertEquals(2, rows.size());
+        assertEquals("Room, 1", rows.get(0).getValues().get("name"));
+        assertEquals("said \"hi\"", rows.get(0).getValues().get("description"));
+        assertEquals("", rows.get(1).getValues().get("name"));
+        assertEquals("", rows.get(1).getValues().get("description"));
+    }
+
+    @Test
+    public void testReadCsvQuotedNewline() throws IOException {
+        final List<Row> rows = readCsv("name,description\r\nRoom 1,\"two\nlines\"\r\nRoom 2,\"last\"");
+        assertEquals(2, rows.size());
+        assertEquals("two\nlines", rows.get(0).getValues().get("description"));
+        assertEquals(2, rows.get(0).getLine());
+        assertEquals(4, rows.get(1).getLine());
+        assertEquals("last", rows.get(1).getValues().get("description"));
+    }
+
+    @Test
+    public void testReadCsvShortRecord() throws IOException {
+        final List<Row> rows = readCsv("name,area,parent\nRoom 1,3\n");
+        assertEquals(1, rows.size());
+        assertEquals("3", rows.get(0).getValues().get("area"));
+        assertFalse(rows.get(0).getValues().containsKey("parent"));
+    }
+
+    @Test
+    public void testReadCsvEmpty() throws IOException {
+        assertTrue(readCsv("").isEmpty());
+        assertTrue(readCsv("name,area\n").isEmpty());
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("Campus/Building/Floor 1", SpaceImport.normalize("/Campus/ Building //Floor 1/"));
+        assertEquals("Campus", SpaceImport.normalize(" Campus "));
+        assertEquals("", SpaceImport.normalize("/"));
+    }
+
+    private static final String[][] SPACES = { { "Room", "1.01" }, { "Lab", "1.02" }, { "Room", "1.03" }, { "1.01", null } };
+
+    private static String[] findStep(String step) {
+        return SpaceImport.findStep(step, Arrays.asList(SPACES), space -> space[0], space -> space[1]);
+    }
+
+    @Test
+    public void testResolveStep() {
+        assertEquals(SPACES[1], findStep("Lab"));
+        assertEquals(SPACES[2], findStep("1.03"));
+        assertNull(findStep("Office"));
+    }
+
+    @Test
+    public void testResolveStepPrefersBlueprintNumber() {
+        assertEquals(SPACES[0], findStep("1.01"));
+    }
+
+    @Test
+    public void testResolveStepFirstByName() {
+        assertEquals(SPACES[0], findStep("Room"));
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright © 2014 Instituto Superior Técnico
+ *
+ * This file is part of FenixEdu Spaces.
+ *
+ * FenixEdu Spaces is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * FenixEdu Spaces is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with FenixEdu Spaces.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.fenixedu.spaces.ui;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.junit.Test;
+
+public class TestHttpCaching {
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormat.forPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'")
+            .withLocale(Locale.US).withZoneUTC();
+
+    private static final DateTime LAST_MODIFIED = new DateTime(2014, 10, 1, 12, 30, 15, DateTimeZone.UTC);
+
+    /**
+     * A request with the given headers, given as name and value pairs, whose dates are parsed as the container would.
+     */
+    private static HttpServletRequest request(String... headers) {
+        final Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < headers.length; i += 2) {
+            values.put(headers[i], headers[i + 1]);
+        }
+        return (HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getHeader":
+                        return values.get(args[0]);
+                    case "getDateHeader":
+                        final String value = values.get(args[0]);
+                        return value == null ? -1L : HTTP_DATE.parseMillis(value);
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static long[] range(String range, long length) {
+        return HttpCaching.getRange(request("Range", range), length);
+    }
+
+    @Test
+    public void testRange() {
+        assertArrayEquals(new long[] { 0, 99 }, range("bytes=0-99", 1000));
+        assertArrayEquals(new long[] { 500, 999 }, range("bytes=500-", 1000));
+        assertArrayEquals(new long[] { 900, 999 }, range("bytes=-100", 1000));
+        assertArrayEquals(new long[] { 0, 999 }, range("bytes=-5000", 1000));
+        assertArrayEquals(new long[] { 990, 999 }, range("bytes= 990 - 2000", 1000));
+    }
+
+    @Test
+    public void testUnsatisfiableRange() {
+        assertNull(HttpCaching.getRange(request(), 1000));
+        assertNull(range("bytes=1000-", 1000));
+        assertNull(range("bytes=50-10", 1000));
+        assertNull(range("bytes=0-10", 0));
+    }
+
+    @Test
+    public void testInvalidRange() {
+        assertNull(range("items=0-10", 1000));
+        assertNull(range("bytes=0-10,20-30", 1000));
+        assertNull(range("bytes=10", 1000));
+        assertNull(range("bytes=a-b", 1000));
+        assertNull(range("bytes=-", 1000));
+    }
+
+    @Test
+    public void testIfRangeEtag() {
+        assertTrue(HttpCaching.isRangeApplicable(request(), "abc", LAST_MODIFIED));
+        assertTrue(HttpCaching.isRangeApplicable(request("If-Range", "\"abc\""), "abc", LAST_MODIFIED));
+        assertFalse(HttpCaching.isRangeApplicable(request("If-Range", "\"abd\""), "abc", LAST_MODIFIED));
+        assertFalse(HttpCaching.isRangeApplicable(request("If-Range", "W/\"abc\""), "abc", LAST_MODIFIED));
+    }
+
+    @Test
+    public void testIfRangeDate() {
+        final String date = HTTP_DATE.print(LAST_MODIFIED);
+        assertTrue(HttpCaching.isRangeApplicable(request("If-Range", date), "abc", LAST_MODIFIED.plusMillis(500)));
+        assertTrue(HttpCaching.isRangeApplicable(request("If-Range", date), "abc", LAST_MODIFIED.minusDays(1)));
+        assertFalse(HttpCaching.isRangeApplicable(request("If-Range", date), "abc", LAST_MODIFIED.plusSeconds(1)));
+        assertFalse(HttpCaching.isRangeApplicable(request("If-Range", date), "abc", null));
+    }
+
+}